@@ -1,5 +1,7 @@
 package coff;
 
+import java.util.Arrays;
+
 import machine.Configuration;
 import machine.Lib;
 import machine.Page;
@@ -7,10 +9,13 @@ import emulator.Memory;
 import emulator.MipsException;
 import filesystem.FileSystem;
 import kernel.Kernel;
+import kernel.KernelFault;
 import kernel.PCB;
 
 /**
- * Loads a c program file from disk into a processes memory
+ * Loads a c program file from disk into a processes memory. Only the arguments 
+ * are written to memory up front, the pages of each section are read from the 
+ * file by <tt>loadPage</tt> the first time the program touches them.
  * 
  * @author pauljohnson
  *
@@ -38,19 +43,19 @@ public class Loader {
 		this.memory = memory;
 		this.fid = fid;
 		
-		kernel.checkInMemory(0);
+		// read headers from file
+		byte[] headers = new byte[Configuration.totalHeaderLength];
 		
-		// read headers from file to memory
-		int headersRead = fs.read(fid, Configuration.totalHeaderLength, 0, kernel, process);
+		int headersRead = fs.read(fid, headers, 0, headers.length, process);
 		
 		checkHeaderLength(headersRead);
 		
 		// read header values
-		int magic = memory.readMem(0, 2);//Lib.bytesToUnsignedShort(headers, 0);
-		int numSections = memory.readMem(2, 2);//Lib.bytesToUnsignedShort(headers, 2);
-		int optionalHeaderLength = memory.readMem(16, 2);//Lib.bytesToUnsignedShort(headers, 16);
-		int flags = memory.readMem(18, 2);//Lib.bytesToUnsignedShort(headers, 18);
-		programCounter = memory.readMem(Configuration.headerLength+16, 4);//Lib.bytesToInt(headers, headerLength + 16);
+		int magic = Lib.bytesToUnsignedShort(headers, 0);
+		int numSections = Lib.bytesToUnsignedShort(headers, 2);
+		int optionalHeaderLength = Lib.bytesToUnsignedShort(headers, 16);
+		int flags = Lib.bytesToUnsignedShort(headers, 18);
+		programCounter = Lib.bytesToInt(headers, Configuration.headerLength + 16);
 		
 		checkHeaderDetails(magic, numSections, flags);
 		
@@ -66,6 +71,8 @@ public class Loader {
 		// and finally reserve 1 page for arguments
 		numPages++;
 		
+		checkAddressSpace(numPages);
+		
 		
 		//System.out.println(numPages);
 		
@@ -74,31 +81,27 @@ public class Loader {
 		// store arguments in last page
 				
 		int argvPointer = Memory.makeAddress(numPages, 0);
-		int stringsStartPointer = argvPointer + args.length * 4;
 
 		//System.out.println("argvPointer: " + Integer.toHexString(argvPointer));
 		
 		argc = args.length;
 		argv = argvPointer;
 
-		kernel.checkInMemory(argv);
+		// build the page up and copy it in one go, the page starts out as a zero page so the 
+		// kernel has to give it its own frame
+		byte[] argsPage = new byte[Configuration.pageSize];
+		int stringsOffset = args.length * 4;
 		
 		for (int i = 0; i < argv_b.length; i++) {
 			// write string pointer
-			memory.writeMem(argvPointer, 4, stringsStartPointer);
-			argvPointer += 4;
-			
-			// write string
-			for(int j = 0; j < argv_b[i].length; j++){
-				memory.writeMem(stringsStartPointer, 1, argv_b[i][j]);
-				stringsStartPointer++;
-			}
+			Lib.bytesFromInt(argsPage, i * 4, argvPointer + stringsOffset);
 			
-			
-			// write 0 at end of string
-			memory.writeMem(stringsStartPointer, 1, 0);
-			stringsStartPointer++;
+			// write string, the 0 at the end is already there
+			System.arraycopy(argv_b[i], 0, argsPage, stringsOffset, argv_b[i].length);
+			stringsOffset += argv_b[i].length + 1;
 		}
+		
+		kernel.copyOut(process, argv, argsPage, 0, stringsOffset);
 	}
 	
 	/**
@@ -120,8 +123,10 @@ public class Loader {
 		// set file positon
 		fs.seek(fid, sectionTableOffset, process);
 		
-		// read section headers to memory
-		int sectionHeaderRead = fs.read(fid, Configuration.coffSectionHeaderLength*numSections, 0, kernel, process);
+		// read section headers
+		byte[] buf = new byte[Configuration.coffSectionHeaderLength*numSections];
+		
+		int sectionHeaderRead = fs.read(fid, buf, 0, buf.length, process);
 		
 		// check that section headers size is correct
 		if (Configuration.coffSectionHeaderLength*numSections != sectionHeaderRead) {
@@ -134,27 +139,21 @@ public class Loader {
 			SectionDetail section = new SectionDetail();
 			sections[s] = section;
 			
-			// this is the offset into memory where the sectionheader for section s is
+			// this is the offset into buf where the sectionheader for section s is
 			int sectionEntryOffset = s * Configuration.coffSectionHeaderLength;
 			
-			byte[] namebuf = new byte[8];
-			
-			for(int i = 0; i < namebuf.length; i++){
-				namebuf[i] = (byte) memory.readMem(sectionEntryOffset+i, 1);
-			}
-			
-			section.name = Lib.bytesToString(namebuf, 0, 8);
+			section.name = Lib.bytesToString(buf, sectionEntryOffset, 8);
 			
 			//System.out.println("Section Name: " + section.name);
 			
-			section.vaddr = memory.readMem(sectionEntryOffset+12, 4);//Lib.bytesToInt(buf, 12);
-			section.size = memory.readMem(sectionEntryOffset+16, 4);//Lib.bytesToInt(buf, 16);
-			section.contentOffset = memory.readMem(sectionEntryOffset+20, 4);//Lib.bytesToInt(buf, 20);
+			section.vaddr = Lib.bytesToInt(buf, sectionEntryOffset+12);
+			section.size = Lib.bytesToInt(buf, sectionEntryOffset+16);
+			section.contentOffset = Lib.bytesToInt(buf, sectionEntryOffset+20);
 			
 			//System.out.println("Section offset: " + section.contentOffset);
 			
-			section.numRelocations = memory.readMem(sectionEntryOffset+32, 2);//Lib.bytesToUnsignedShort(buf, 32);
-			section.flags = memory.readMem(36, 4);//Lib.bytesToInt(buf, 36);
+			section.numRelocations = Lib.bytesToUnsignedShort(buf, sectionEntryOffset+32);
+			section.flags = Lib.bytesToInt(buf, sectionEntryOffset+36);
 
 			checkRelocations(section.numRelocations);
 			checkSectionAddresses(section.vaddr, section.contentOffset, section.size);
@@ -174,67 +173,94 @@ public class Loader {
 			numPages += section.numPages;
 		}
 		
-		// now load the pages from the file
-		
-		for(int i = 0; i < sections.length; i++){
-			SectionDetail section = sections[i];
-			
-			
-			loadSection(section);
-		}
+		// the pages are read from the file as they are touched
+		process.sections = sections;
+		process.executable = fid;
 		
 		return numPages;
 	}
 	
 	/**
-	 * Load a section of a file into memory
+	 * Read a page of a program from its file, zero filling whatever the section
+	 * doesn't initialize
 	 * 
-	 * @param section
-	 * @throws CoffLoadException
-	 * @throws MipsException
+	 * @param process process the page belongs to, with its program file open
+	 * @param vpn virtual page number of the page
+	 * @param data array to read the page into
+	 * @param fs file system the program file is in
+	 * @return false if the page isn't part of any section of the program
 	 */
-	protected void loadSection(SectionDetail section) throws CoffLoadException, MipsException {
+	public static boolean loadPage(PCB process, int vpn, byte[] data, FileSystem fs) {
+		SectionDetail section = findSection(process, vpn);
 		
-		int fileStart = section.contentOffset;
+		if(section == null){
+			return false;
+		}
 		
-		for (int i = 0; i < section.numPages; i++) {
-			int vpn = section.firstVPN + i;
-			
-			//System.out.println("Loading sections: " + vpn);
-
-			//System.out.println("Section file start: " + fileStart);
-			
-			int memoryPointer = Memory.makeAddress(vpn, 0);
-			
-			kernel.checkInMemory(memoryPointer);
-			
-			//System.out.println("Physical page number: " + process.pageTable[vpn].ppn);
-			
-			fs.seek(fid, fileStart, process);
-
-			fs.read(fid, Configuration.pageSize, memoryPointer, kernel, process);
-			
-			//System.out.println("First Instruction: " + Integer.toHexString(memory.readMem(memoryPointer, 4)));
+		int i = vpn - section.firstVPN;
+		
+		int initlen = 0;
+		
+		if(section.initialized){
+			initlen = Math.min(Configuration.pageSize, section.size - i * Configuration.pageSize);
 			
-			// initialize data
+			fs.seek(process.executable, section.contentOffset + i * Configuration.pageSize, process);
 			
-			int initlen;
+			int read = fs.read(process.executable, data, 0, initlen, process);
 			
-			if (!section.initialized){
-				initlen = 0;
-			}else if (i == section.numPages - 1){
-				initlen = section.size % Configuration.pageSize;
-			}else{
-				initlen = Configuration.pageSize;
+			if(read != initlen){
+				throw new KernelFault("Unable to read page " + vpn + " of " + process.name);
 			}
-			
-			for(int j = initlen; j < Configuration.pageSize; j++){
-				memory.writeMem(memoryPointer+j, 1, 0);
+		}
+		
+		Arrays.fill(data, initlen, Configuration.pageSize, (byte) 0);
+		
+		return true;
+	}
+	
+	/**
+	 * Check whether a page is part of a read only section of a program
+	 */
+	public static boolean isReadOnly(PCB process, int vpn) {
+		SectionDetail section = findSection(process, vpn);
+		
+		return section != null && section.readOnly;
+	}
+	
+	/**
+	 * Check whether a page is part of any section of a program
+	 */
+	public static boolean inSection(PCB process, int vpn) {
+		return findSection(process, vpn) != null;
+	}
+	
+	/**
+	 * Check whether a page is read from the program file, rather than starting 
+	 * out zero filled like the stack and uninitialized sections
+	 */
+	public static boolean isInitialized(PCB process, int vpn) {
+		SectionDetail section = findSection(process, vpn);
+		
+		return section != null && section.initialized;
+	}
+	
+	/**
+	 * Find the section of a program a page is in
+	 * 
+	 * @return the section or null if the page isn't in one
+	 */
+	private static SectionDetail findSection(PCB process, int vpn) {
+		if(process.sections == null){
+			return null;
+		}
+		
+		for(SectionDetail section : process.sections){
+			if(vpn >= section.firstVPN && vpn < section.firstVPN + section.numPages){
+				return section;
 			}
-			
-			fileStart += Configuration.pageSize;
 		}
-
+		
+		return null;
 	}
 	
 	private boolean[] loadFlags(int flags) throws CoffLoadException {
@@ -278,6 +304,12 @@ public class Loader {
 		}
 	}
 
+	private void checkAddressSpace(int numPages) throws CoffLoadException {
+		if (numPages >= process.pageTable.size()) {
+			throw new CoffLoadException("program doesn't fit in the address space");
+		}
+	}
+	
 	private void checkRelocations(int numRelocations) throws CoffLoadException {
 		if (numRelocations != 0) {
 			throw new CoffLoadException("section needs relocation");
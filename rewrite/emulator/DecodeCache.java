@@ -0,0 +1,131 @@
+package emulator;
+
+import machine.Configuration;
+
+/**
+ * Cache of predecoded instructions, kept per physical page. A page's entries
+ * are only allocated once an instruction has been fetched from it, and the
+ * whole page is thrown away as soon as anything writes to it, so data pages
+ * cost a single null check per store.
+ *
+ * <p>
+ * The translated blocks starting on a page, and the branch target counts used
+ * to decide when to translate them, live and die with the page's decoded
+ * instructions.
+ *
+ * @author pauljohnson
+ *
+ */
+final class DecodeCache {
+	private static final int instructionsPerPage = Configuration.pageSize / 4;
+
+	// decoded instructions indexed by physical page number then word offset
+	private DecodedInstruction[][] pages;
+
+	// translated blocks indexed the same way, by the address they start at
+	private TranslatedBlock[][] blocks;
+
+	// number of times each instruction has been jumped to
+	private int[][] hits;
+
+	DecodeCache(int numPhysPages) {
+		pages = new DecodedInstruction[numPhysPages][];
+		blocks = new TranslatedBlock[numPhysPages][];
+		hits = new int[numPhysPages][];
+	}
+
+	/**
+	 * Get the decoded instruction at a physical address.
+	 *
+	 * @param paddr word aligned physical address
+	 * @return the decoded instruction or null if it hasn't been decoded yet
+	 */
+	DecodedInstruction get(int paddr) {
+		DecodedInstruction[] page = pages[paddr / Configuration.pageSize];
+
+		if (page == null) {
+			return null;
+		}
+
+		return page[(paddr % Configuration.pageSize) >> 2];
+	}
+
+	/**
+	 * Remember the decoded instruction at a physical address.
+	 */
+	void put(int paddr, DecodedInstruction instruction) {
+		int ppn = paddr / Configuration.pageSize;
+
+		allocate(ppn);
+
+		pages[ppn][(paddr % Configuration.pageSize) >> 2] = instruction;
+	}
+
+	/**
+	 * Get the translated block starting at a physical address.
+	 *
+	 * @return the block or null if none has been translated
+	 */
+	TranslatedBlock getBlock(int paddr) {
+		TranslatedBlock[] page = blocks[paddr / Configuration.pageSize];
+
+		if (page == null) {
+			return null;
+		}
+
+		return page[(paddr % Configuration.pageSize) >> 2];
+	}
+
+	/**
+	 * Remember the translated block starting at a physical address.
+	 */
+	void putBlock(int paddr, TranslatedBlock block) {
+		int ppn = paddr / Configuration.pageSize;
+
+		allocate(ppn);
+
+		blocks[ppn][(paddr % Configuration.pageSize) >> 2] = block;
+	}
+
+	/**
+	 * Count a jump to a physical address.
+	 *
+	 * @return the number of jumps to the address since its page was last written
+	 */
+	int hit(int paddr) {
+		int ppn = paddr / Configuration.pageSize;
+
+		allocate(ppn);
+
+		return ++hits[ppn][(paddr % Configuration.pageSize) >> 2];
+	}
+
+	/**
+	 * Forget everything decoded from the physical page containing paddr.
+	 * Called whenever that page is written to.
+	 */
+	void invalidate(int paddr) {
+		int ppn = paddr / Configuration.pageSize;
+
+		if (pages[ppn] != null) {
+			// a block could be part way through running from this page
+			for (TranslatedBlock block : blocks[ppn]) {
+				if (block != null) {
+					block.valid = false;
+				}
+			}
+
+			pages[ppn] = null;
+			blocks[ppn] = null;
+			hits[ppn] = null;
+		}
+	}
+
+	private void allocate(int ppn) {
+		if (pages[ppn] == null) {
+			pages[ppn] = new DecodedInstruction[instructionsPerPage];
+			blocks[ppn] = new TranslatedBlock[instructionsPerPage];
+			hits[ppn] = new int[instructionsPerPage];
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package emulator;
+
+import machine.Lib;
+
+/**
+ * An instruction that has already been through the register-independent half
+ * of decoding. The fields, the opcode table lookup and everything derived from
+ * the opcode flags only depend on the instruction word, so they are worked out
+ * once here and reused every time the instruction is executed.
+ *
+ * @author pauljohnson
+ *
+ */
+final class DecodedInstruction {
+	// the raw instruction word and its fields
+	final int value, op, rs, rt, rd, sh, func, target;
+
+	// immediate, already masked for unsigned instructions
+	final int imm;
+
+	// sign extended immediate shifted into a branch offset
+	final int branchOffset;
+
+	// details from the opcode tables
+	final int operation, format, flags;
+	final String name;
+
+	// memory access size and destination register
+	final int size, dstReg;
+
+	// flags that decode() needs on every execution
+	final boolean src1Shift, src2Imm, unsigned;
+
+	DecodedInstruction(int value) {
+		this.value = value;
+
+		op = Lib.extract(value, 26, 6);
+		rs = Lib.extract(value, 21, 5);
+		rt = Lib.extract(value, 16, 5);
+		rd = Lib.extract(value, 11, 5);
+		sh = Lib.extract(value, 6, 5);
+		func = Lib.extract(value, 0, 6);
+		target = Lib.extract(value, 0, 26);
+
+		int extended = Lib.extend(value, 0, 16);
+
+		Mips info;
+		switch (op) {
+		case 0:
+			info = Mips.specialtable[func];
+			break;
+		case 1:
+			info = Mips.regimmtable[rt];
+			break;
+		default:
+			info = Mips.optable[op];
+			break;
+		}
+
+		operation = info.operation;
+		name = info.name;
+		format = info.format;
+		flags = info.flags;
+
+		src1Shift = Lib.test(Mips.SRC1SH, flags);
+		src2Imm = Lib.test(Mips.SRC2IMM, flags);
+		unsigned = Lib.test(Mips.UNSIGNED, flags);
+
+		// get memory access size
+		if (Lib.test(Mips.SIZEB, flags))
+			size = 1;
+		else if (Lib.test(Mips.SIZEH, flags))
+			size = 2;
+		else if (Lib.test(Mips.SIZEW, flags))
+			size = 4;
+		else
+			size = 0;
+
+		// get dstReg
+		if (Lib.test(Mips.DSTRA, flags))
+			dstReg = Processor.regRA;
+		else if (format == Mips.IFMT)
+			dstReg = rt;
+		else if (format == Mips.RFMT)
+			dstReg = rd;
+		else
+			dstReg = -1;
+
+		// branch targets use the sign extended immediate
+		branchOffset = extended << 2;
+
+		imm = unsigned ? extended & 0xFFFF : extended;
+	}
+}
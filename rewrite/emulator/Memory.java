@@ -1,8 +1,13 @@
 package emulator;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import machine.Configuration;
-import machine.Lib;
 import machine.Page;
+import machine.PageTable;
 
 public class Memory {
 	/** The registered target of the delayed load currently in progress. */
@@ -12,7 +17,7 @@ public class Memory {
 	/** The value to be loaded by the delayed load currently in progress. */
 	private int loadValue;
 
-	public Page[] pages;
+	public PageTable pages;
 
 	/** Main memory for user programs. */
 	public byte[] mainMemory;
@@ -22,23 +27,57 @@ public class Memory {
 	/** Virtual memory disabled or enabled */
 	public boolean vmEnabled = false;
 	
+	/** Returned by refillTLB() when the TLB now holds the translation */
+	public static final int translated = -1;
+	
+	/** Little-endian views of main memory so words and halfwords are a single access */
+	private static final VarHandle words = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle halfWords = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	private static final int pageShift = Integer.numberOfTrailingZeros(Configuration.pageSize);
+	
+	/** 
+	 * Software TLB, direct mapped on the virtual page number. Holds the physical address 
+	 * of the page and whether it can be written without going to the page table.
+	 */
+	private int[] tlbVpn = new int[Configuration.tlbSize];
+	private int[] tlbBase = new int[Configuration.tlbSize];
+	private boolean[] tlbWritable = new boolean[Configuration.tlbSize];
+	
+	/** 
+	 * Set while the kernel is handling an exception - its own accesses refill the TLB 
+	 * directly rather than raising TLB misses 
+	 */
+	boolean privileged = false;
+	
+	/** whether the access that caused the last TLB miss exception was a write */
+	private boolean tlbMissWriting;
+	
+	/** Predecoded instructions for physical pages that have been executed from */
+	DecodeCache decodeCache;
+	
 	public Memory(int numPhysPages) {
 		Configuration.numPhysPages = numPhysPages;
 
 		mainMemory = new byte[Configuration.pageSize * numPhysPages];
 
+		decodeCache = new DecodeCache(numPhysPages);
+		
+		flushTLB();
 	}
 
 	/**
 	 * Set the page table pointer. All further address translations will use the
 	 * specified page table. The size of the current address space will be
-	 * determined from the length of the page table array.
+	 * determined from the size of the page table.
 	 * 
 	 * @param pageTable
 	 *            the page table to use.
 	 */
-	public void setPageTable(Page[] pageTable) {
+	public void setPageTable(PageTable pageTable) {
 		this.pages = pageTable;
+		
+		flushTLB();
 	}
 	
 	/**
@@ -108,6 +147,11 @@ public class Memory {
 	 * make sure a read-only page is not being written, make sure the resulting
 	 * physical page is valid, and then return the resulting physical address.
 	 * 
+	 * <p>
+	 * The TLB is checked first. On a miss the page table is walked and the TLB
+	 * refilled, or if <tt>Configuration.kernelTLBRefill</tt> is set a TLB miss
+	 * exception is raised for the kernel to refill it.
+	 * 
 	 * @param vaddr
 	 *            the virtual address to translate.
 	 * @param size
@@ -118,55 +162,106 @@ public class Memory {
 	 * @exception MipsException
 	 *                if a translation error occurred.
 	 */
-	private int newTranslate(int vaddr, int size, boolean writing) throws MipsException {		
+	int newTranslate(int vaddr, int size, boolean writing) throws MipsException {		
 		// check alignment
 		if ((vaddr & (size - 1)) != 0) {
-			throw new MipsException(processor, this, MipsException.exceptionAddressError, vaddr);
+			throw processor.trap(MipsException.exceptionAddressError, vaddr);
 		}
 		
 		// is virtual memory enabled?
 		if(vmEnabled){
-			// calculate virtual page number and offset from the virtual address
-			int vpn = pageFromAddress(vaddr);
-			int offset = offsetFromAddress(vaddr);
-			
-			Page entry = pages[vpn];
+			// calculate virtual page number from the virtual address
+			int vpn = vaddr >>> pageShift;
+			int slot = vpn & (Configuration.tlbSize - 1);
 			
-			//System.out.println("vpn " + vpn);
-			
-			if(entry == null || !entry.present){
-				throw new MipsException(processor, this, MipsException.exceptionPageFault, vaddr);
+			// the common case - a TLB hit
+			if (tlbVpn[slot] == vpn && (!writing || tlbWritable[slot])) {
+				return tlbBase[slot] + (vaddr & (Configuration.pageSize - 1));
 			}
-	
-			// check if trying to write a read-only page
-			if (entry.readOnly && writing) {
-				throw new MipsException(processor, this, MipsException.exceptionReadOnly, vaddr);
+			
+			if (Configuration.kernelTLBRefill && !privileged) {
+				tlbMissWriting = writing;
+				throw processor.trap(MipsException.exceptionTLBMiss, vaddr);
 			}
-	
-			// check if physical page number is out of range
-			int ppn = entry.ppn;
-			if (ppn < 0 || ppn >= Configuration.numPhysPages) {
-				throw new MipsException(processor, this, MipsException.exceptionBusError, vaddr);
+			
+			int cause = walk(vpn, writing);
+			
+			if (cause != translated) {
+				throw processor.trap(cause, vaddr);
 			}
 	
-			// set used and dirty bits as appropriate
-			entry.used = true;
-			if (writing)
-				entry.dirty = true;
-	
-			int paddr = (ppn * Configuration.pageSize) + offset;
-	
-			return paddr;
+			return tlbBase[slot] + (vaddr & (Configuration.pageSize - 1));
 		}else{
 			int ppn = pageFromAddress(vaddr);
 			
 			if (ppn < 0 || ppn >= Configuration.numPhysPages) {
-				throw new MipsException(processor, this, MipsException.exceptionBusError, vaddr);
+				throw processor.trap(MipsException.exceptionBusError, vaddr);
 			}
 			
 			return vaddr;
 		}
 	}
+	
+	/**
+	 * Look up a virtual page in the page table and load it into the TLB, setting the used
+	 * and dirty bits for the access.
+	 * 
+	 * @return <tt>translated</tt> if the TLB was refilled, otherwise the cause of the 
+	 * 			exception the access should raise 
+	 */
+	private int walk(int vpn, boolean writing) {
+		int entry = pages.getEntry(vpn);
+		
+		if((entry & Page.presentBit) == 0){
+			return MipsException.exceptionPageFault;
+		}
+
+		// check if trying to write a read-only page
+		if ((entry & Page.readOnlyBit) != 0 && writing) {
+			return MipsException.exceptionReadOnly;
+		}
+
+		// check if physical page number is out of range
+		int ppn = entry >> Page.ppnShift;
+		if (ppn < 0 || ppn >= Configuration.numPhysPages) {
+			return MipsException.exceptionBusError;
+		}
+
+		// set used and dirty bits as appropriate
+		entry |= Page.usedBit;
+		if (writing)
+			entry |= Page.dirtyBit;
+		
+		pages.setEntry(vpn, entry);
+		
+		// writes can only hit once the page is marked dirty
+		int slot = vpn & (Configuration.tlbSize - 1);
+		tlbVpn[slot] = vpn;
+		tlbBase[slot] = ppn * Configuration.pageSize;
+		tlbWritable[slot] = (entry & (Page.dirtyBit | Page.readOnlyBit)) == Page.dirtyBit;
+		
+		return translated;
+	}
+	
+	/**
+	 * Refill the TLB after a TLB miss exception, from the page table set with setPageTable().
+	 * 
+	 * @param vaddr the address that missed
+	 * @return <tt>translated</tt> if the TLB now maps the address, otherwise the cause of
+	 * 			the exception the access should have raised, e.g. a page fault
+	 */
+	public int refillTLB(int vaddr) {
+		return walk(vaddr >>> pageShift, tlbMissWriting);
+	}
+	
+	/**
+	 * Empty the TLB. This has to be done whenever a page table entry that might be cached 
+	 * is changed - the page is swapped out, its used bit is cleared, it is made read-only - 
+	 * as hits don't look at the page table at all.
+	 */
+	public void flushTLB() {
+		Arrays.fill(tlbVpn, -1);
+	}
 
 	/**
 	 * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
@@ -181,9 +276,19 @@ public class Memory {
 	 *                if a translation error occurred.
 	 */
 	public int readMem(int vaddr, int size) throws MipsException {
-		int value = Lib.bytesToInt(mainMemory, newTranslate(vaddr, size, false), size);
+		int paddr = newTranslate(vaddr, size, false);
 
-		return value;
+		// sign extended, the same as Lib.bytesToInt()
+		switch (size) {
+		case 4:
+			return (int) words.get(mainMemory, paddr);
+		case 2:
+			return (short) halfWords.get(mainMemory, paddr);
+		case 1:
+			return mainMemory[paddr];
+		default:
+			return -1;
+		}
 	}
 
 	/**
@@ -200,7 +305,103 @@ public class Memory {
 	 *                if a translation error occurred.
 	 */
 	public void writeMem(int vaddr, int size, int value) throws MipsException {
-		Lib.bytesFromInt(mainMemory, newTranslate(vaddr, size, true), size, value);
+		int paddr = newTranslate(vaddr, size, true);
+		
+		// code on this page has been modified so it needs decoding again
+		decodeCache.invalidate(paddr);
+		
+		switch (size) {
+		case 4:
+			words.set(mainMemory, paddr, value);
+			break;
+		case 2:
+			halfWords.set(mainMemory, paddr, (short) value);
+			break;
+		case 1:
+			mainMemory[paddr] = (byte) value;
+			break;
+		}
+	}
+
+	/**
+	 * Copy <i>length</i> bytes of virtual memory starting at <i>vaddr</i> into
+	 * <i>data</i>. Each page is only translated once.
+	 * 
+	 * @param vaddr
+	 *            the virtual address to read from.
+	 * @param data
+	 *            the array to copy into.
+	 * @param offset
+	 *            where in data to start copying to.
+	 * @param length
+	 *            the number of bytes to copy.
+	 * @exception MipsException
+	 *                if a translation error occurred, in which case the pages
+	 *                before the one that failed have already been copied.
+	 */
+	public void readBlock(int vaddr, byte[] data, int offset, int length) throws MipsException {
+		while (length > 0) {
+			int amount = Math.min(length, Configuration.pageSize - offsetFromAddress(vaddr));
+			int paddr = newTranslate(vaddr, 1, false);
+
+			System.arraycopy(mainMemory, paddr, data, offset, amount);
+
+			vaddr += amount;
+			offset += amount;
+			length -= amount;
+		}
+	}
+
+	/**
+	 * Copy <i>length</i> bytes from <i>data</i> into virtual memory starting
+	 * at <i>vaddr</i>. Each page is only translated once.
+	 * 
+	 * @param vaddr
+	 *            the virtual address to write to.
+	 * @param data
+	 *            the array to copy from.
+	 * @param offset
+	 *            where in data to start copying from.
+	 * @param length
+	 *            the number of bytes to copy.
+	 * @exception MipsException
+	 *                if a translation error occurred, in which case the pages
+	 *                before the one that failed have already been written.
+	 */
+	public void writeBlock(int vaddr, byte[] data, int offset, int length) throws MipsException {
+		while (length > 0) {
+			int amount = Math.min(length, Configuration.pageSize - offsetFromAddress(vaddr));
+			int paddr = newTranslate(vaddr, 1, true);
+
+			decodeCache.invalidate(paddr);
+
+			System.arraycopy(data, offset, mainMemory, paddr, amount);
+
+			vaddr += amount;
+			offset += amount;
+			length -= amount;
+		}
+	}
+
+	/**
+	 * Fill a physical page with zeros.
+	 * 
+	 * @param ppn
+	 *            the physical page number.
+	 */
+	public void zeroFrame(int ppn) {
+		int paddr = ppn * Configuration.pageSize;
+
+		decodeCache.invalidate(paddr);
+
+		Arrays.fill(mainMemory, paddr, paddr + Configuration.pageSize, (byte) 0);
+	}
+
+	/**
+	 * Read the word at a physical address, for instruction fetch.
+	 */
+	int readPhysicalWord(int paddr) {
+		return (int) words.get(mainMemory, paddr);
 	}
 
 	/**
@@ -31,6 +31,9 @@ public class MipsException extends Exception {
 	private Memory memory;
 	
 	public MipsException(Processor processor, Memory memory, int cause) {
+		// traps are control flow, not errors - don't pay for a stack trace on every one
+		super(null, null, false, false);
+		
 		this.cause = cause;
 		this.processor = processor;
 		this.memory = memory;
@@ -42,7 +45,28 @@ public class MipsException extends Exception {
 		hasBadVAddr = true;
 		this.badVAddr = badVAddr;
 	}
-
+	
+	/**
+	 * Reuse this exception for a new trap with no bad virtual address.
+	 */
+	MipsException reset(int cause) {
+		this.cause = cause;
+		this.hasBadVAddr = false;
+		
+		return this;
+	}
+	
+	/**
+	 * Reuse this exception for a new trap caused by an access to badVAddr.
+	 */
+	MipsException reset(int cause, int badVAddr) {
+		this.cause = cause;
+		this.hasBadVAddr = true;
+		this.badVAddr = badVAddr;
+		
+		return this;
+	}
+	
 	public void handle() {
 		processor.writeRegister(Processor.regCause, cause);
 
@@ -51,7 +75,9 @@ public class MipsException extends Exception {
 
 		memory.finishLoad();
 
+		memory.privileged = true;
 		processor.exceptionHandler.run();
+		memory.privileged = false;
 	}
 
 	private boolean hasBadVAddr = false;
@@ -3,6 +3,7 @@
 package emulator;
 
 import hardware.Interrupt;
+import machine.Configuration;
 import machine.Machine;
 import machine.Lib;
 import machine.Page;
@@ -42,6 +43,9 @@ public final class Processor {
 		
 		for (int i = 0; i < numUserRegisters; i++)
 			registers[i] = 0;
+		
+		if (Configuration.translateBlocks)
+			translator = new Translator(this);
 	}
 
 	/**
@@ -69,7 +73,10 @@ public final class Processor {
 
 		while (true) {
 			try {
-				run();
+				if (waitForInterrupt)
+					halt();
+				else
+					run();
 			} catch (MipsException e) {
 				e.handle();
 			}			
@@ -125,7 +132,7 @@ public final class Processor {
 	 * @param nextPC
 	 *            the new value of the nextPC register.
 	 */
-	private void advancePC(int nextPC) {
+	void advancePC(int nextPC) {
 		registers[regPC] = registers[regNextPC];
 		registers[regNextPC] = nextPC;
 	}
@@ -169,120 +176,170 @@ public final class Processor {
 	/** The kernel exception handler, called on every user exception. */
 	Runnable exceptionHandler = null;
 
+	/** 
+	 * The exception thrown for every trap. The processor only handles one trap at a time
+	 * and handle() copies out the cause before calling the kernel, so it is allocated once.
+	 */
+	private MipsException trap = null;
+
+	/** Translates and runs hot blocks, null if translation is turned off. */
+	private Translator translator = null;
+
+	/** Instructions (or translated blocks) left to run before checking for interrupts. */
+	private int untilInterruptCheck = 0;
+
+	/** Number of instructions run so far, for the kernel to charge to processes. */
+	public long instructions = 0;
+
+	/** Instruction count when the virtual clock was last moved on. */
+	private long clocked = 0;
+
+	/** 
+	 * Set by the kernel when no process can run. The processor stops until an interrupt
+	 * arrives instead of running an idle loop.
+	 */
+	public boolean waitForInterrupt = false;
+
+	/** Target of the last taken branch - where translated blocks can start. */
+	int branchTarget = -1;
+
 	public static final char dbgProcessor = 'p';
 	public static final char dbgDisassemble = 'm';
 	public static final char dbgFullDisassemble = 'M';
 
+	/**
+	 * Get the processor's exception, set up for a trap with the given cause.
+	 */
+	MipsException trap(int cause) {
+		if (trap == null)
+			trap = new MipsException(this, memory, cause);
+
+		return trap.reset(cause);
+	}
+
+	/**
+	 * Get the processor's exception, set up for a trap caused by an access to
+	 * badVAddr.
+	 */
+	MipsException trap(int cause, int badVAddr) {
+		return trap(cause).reset(cause, badVAddr);
+	}
+
 	public void run() throws MipsException {
-		// hopefully this looks familiar to 152 students?
-		fetch();
-		decode();
-		execute();
-		writeBack();
-
-		// check interrupts here
-		Interrupt interrupt = machine.getInterrupts().poll();
-
-		if(interrupt != null){
-			machine.interrupting = interrupt;
-			throw new MipsException(this, memory, MipsException.exceptionInterrupt);
+		// run a whole translated block if we've just branched to one
+		if (translator == null || registers[regPC] != branchTarget || !translator.run()) {
+			// hopefully this looks familiar to 152 students?
+			fetch();
+			decode();
+			execute();
+			writeBack();
+
+			instructions++;
+		}
+
+		// check interrupts here, only going to the queue if something is waiting
+		if (--untilInterruptCheck <= 0) {
+			untilInterruptCheck = Configuration.interruptCheckInterval;
+			
+			// devices on the virtual clock interrupt from here
+			if (machine.clock != null) {
+				machine.clock.advance(instructions - clocked);
+				clocked = instructions;
+			}
+			
+			if (machine.interruptPending()) {
+				Interrupt interrupt = machine.pollInterrupt();
+	
+				if(interrupt != null){
+					machine.interrupting = interrupt;
+					throw trap(MipsException.exceptionInterrupt);
+				}
+			}
 		}
 	}
 
+	/**
+	 * Block until an interrupt arrives and trap to the kernel with it, like the
+	 * MIPS wait instruction.
+	 */
+	private void halt() throws MipsException {
+		try {
+			machine.interrupting = machine.takeInterrupt();
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		throw trap(MipsException.exceptionInterrupt);
+	}
+
 	private boolean test(int flag) {
 		return Lib.test(flag, flags);
 	}
 
 	private void fetch() throws MipsException {
-		value = memory.readMem(registers[regPC], 4);
-	}
-
-	private void decode() {
-		op = Lib.extract(value, 26, 6);
-		rs = Lib.extract(value, 21, 5);
-		rt = Lib.extract(value, 16, 5);
-		rd = Lib.extract(value, 11, 5);
-		sh = Lib.extract(value, 6, 5);
-		func = Lib.extract(value, 0, 6);
-		target = Lib.extract(value, 0, 26);
-		imm = Lib.extend(value, 0, 16);
-
-		Mips info;
-		switch (op) {
-		case 0:
-			info = Mips.specialtable[func];
-			
-			break;
-		case 1:
-			info = Mips.regimmtable[rt];
-			break;
-		default:
-			info = Mips.optable[op];
-			break;
+		int paddr = memory.newTranslate(registers[regPC], 4, false);
+		
+		// only decode instructions we haven't seen since their page was last written
+		instruction = memory.decodeCache.get(paddr);
+		
+		if (instruction == null) {
+			instruction = new DecodedInstruction(memory.readPhysicalWord(paddr));
+			memory.decodeCache.put(paddr, instruction);
 		}
+	}
 
-		operation = info.operation;
-		name = info.name;
-		format = info.format;
-		flags = info.flags;
+	void decode() {
+		DecodedInstruction inst = instruction;
+		
+		value = inst.value;
+		op = inst.op;
+		rs = inst.rs;
+		rt = inst.rt;
+		rd = inst.rd;
+		sh = inst.sh;
+		func = inst.func;
+		target = inst.target;
+		imm = inst.imm;
+
+		operation = inst.operation;
+		name = inst.name;
+		format = inst.format;
+		flags = inst.flags;
+		size = inst.size;
+		dstReg = inst.dstReg;
 
 		mask = 0xFFFFFFFF;
 		branch = true;
 
-		// get memory access size
-		if (test(Mips.SIZEB))
-			size = 1;
-		else if (test(Mips.SIZEH))
-			size = 2;
-		else if (test(Mips.SIZEW))
-			size = 4;
-		else
-			size = 0;
-
 		// get nextPC
 		nextPC = registers[regNextPC] + 4;
 
-		// get dstReg
-		if (test(Mips.DSTRA))
-			dstReg = regRA;
-		else if (format == Mips.IFMT)
-			dstReg = rt;
-		else if (format == Mips.RFMT)
-			dstReg = rd;
-		else
-			dstReg = -1;
-
 		// get jtarget
 		if (format == Mips.RFMT)
 			jtarget = registers[rs];
 		else if (format == Mips.IFMT)
-			jtarget = registers[regNextPC] + (imm << 2);
+			jtarget = registers[regNextPC] + inst.branchOffset;
 		else if (format == Mips.JFMT)
 			jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
 		else
 			jtarget = -1;
 
-		// get imm
-		if (test(Mips.UNSIGNED)) {
-			imm &= 0xFFFF;
-		}
-
 		// get addr
 		addr = registers[rs] + imm;
 
 		// get src1
-		if (test(Mips.SRC1SH))
+		if (inst.src1Shift)
 			src1 = sh;
 		else
 			src1 = registers[rs];
 
 		// get src2
-		if (test(Mips.SRC2IMM))
+		if (inst.src2Imm)
 			src2 = imm;
 		else
 			src2 = registers[rt];
 
-		if (test(Mips.UNSIGNED)) {
+		if (inst.unsigned) {
 			src1 &= 0xFFFFFFFFL;
 			src2 &= 0xFFFFFFFFL;
 		}
@@ -296,7 +353,7 @@ public final class Processor {
 //		}
 	}
 
-	private void execute() throws MipsException {
+	void execute() throws MipsException {
 		int value;
 		int preserved;
 
@@ -319,7 +376,7 @@ public final class Processor {
 				if (registers[regLo] * src2 + registers[regHi] != src1)
 					throw new ArithmeticException();
 			} catch (ArithmeticException e) {
-				throw new MipsException(this, memory, MipsException.exceptionOverflow);
+				throw trap(MipsException.exceptionOverflow);
 			}
 			break;
 
@@ -389,7 +446,7 @@ public final class Processor {
 				break;
 
 			case Mips.SYSCALL:
-				throw new MipsException(this, memory, MipsException.exceptionSyscall);
+				throw trap(MipsException.exceptionSyscall);
 
 			case Mips.LOAD:
 				value = memory.readMem(addr, size);
@@ -463,7 +520,7 @@ public final class Processor {
 				
 				EmulatorHelpers.print(this);
 				
-				throw new MipsException(this, memory, MipsException.exceptionIllegalInstruction);
+				throw trap(MipsException.exceptionIllegalInstruction);
 
 			default:
 				Lib.assertNotReached();
@@ -472,10 +529,10 @@ public final class Processor {
 
 	}
 
-	private void writeBack() throws MipsException {
+	void writeBack() throws MipsException {
 		// if instruction is signed, but carry bit !+ sign bit, throw
 		if (test(Mips.OVERFLOW) && Lib.test(dst, 31) != Lib.test(dst, 32))
-			throw new MipsException(this, memory, MipsException.exceptionOverflow);
+			throw trap(MipsException.exceptionOverflow);
 
 		if (test(Mips.DELAYEDLOAD))
 			memory.delayedLoad(dstReg, (int) dst, mask);
@@ -498,12 +555,14 @@ public final class Processor {
 
 		if (test(Mips.BRANCH) && branch) {
 			nextPC = jtarget;
+			branchTarget = jtarget;
 		}
 
 		advancePC(nextPC);
 	}
 
 	// state used to execute a single instruction
+	DecodedInstruction instruction;
 	int value, op, rs, rt, rd, sh, func, target, imm;
 	int operation, format, flags;
 	String name;
@@ -0,0 +1,403 @@
+package emulator;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import machine.Configuration;
+import machine.Machine;
+import junit.framework.TestCase;
+
+
+public class ProcessorTest extends TestCase {
+
+	// the syscall instruction
+	private static final int syscall = 0x0000000c;
+
+	Machine machine;
+
+	Processor processor;
+
+	int traps;
+
+	// set when a program run by runProgram() traps
+	boolean stopped;
+
+	boolean oldTranslateBlocks;
+
+	int oldTranslationThreshold;
+
+	@Override
+	protected void setUp() throws Exception {
+		Configuration.numPhysPages = 4;
+
+		oldTranslateBlocks = Configuration.translateBlocks;
+		oldTranslationThreshold = Configuration.translationThreshold;
+		
+		machine = new Machine();
+		machine.createDevices();
+
+		processor = machine.processor();
+
+		// fill the first page with syscalls
+		for(int i = 0; i < Configuration.pageSize; i += 4){
+			machine.memory().writeMem(i, 4, syscall);
+		}
+
+		processor.writeRegister(Processor.regPC, 0);
+		processor.writeRegister(Processor.regNextPC, 4);
+
+		// move on to the next instruction like the kernel does after a syscall
+		processor.setExceptionHandler(new Runnable() {
+			public void run() {
+				traps++;
+
+				if(processor.readRegister(Processor.regNextPC) == Configuration.pageSize){
+					processor.writeRegister(Processor.regPC, 0);
+					processor.writeRegister(Processor.regNextPC, 4);
+				}else{
+					processor.advancePC();
+				}
+			}
+		});
+
+		super.setUp();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Configuration.translateBlocks = oldTranslateBlocks;
+		Configuration.translationThreshold = oldTranslationThreshold;
+
+		super.tearDown();
+	}
+
+	public void testTrapIsReused() throws Exception {
+		MipsException first = trap();
+
+		first.handle();
+
+		MipsException second = trap();
+
+		assertSame(first, second);
+		assertTrue(second.getStackTrace().length == 0);
+
+		second.handle();
+
+		assertTrue(processor.readRegister(Processor.regCause) == MipsException.exceptionSyscall);
+		assertTrue(traps == 2);
+	}
+
+	public void testBadAddressTrap() throws Exception {
+		try {
+			machine.memory().readMem(2, 4);
+			fail("misaligned read didn't trap");
+		} catch (MipsException e) {
+			e.handle();
+		}
+
+		assertTrue(processor.readRegister(Processor.regCause) == MipsException.exceptionAddressError);
+		assertTrue(processor.readRegister(Processor.regBadVAddr) == 2);
+
+		// a later trap without an address doesn't report the old one
+		processor.writeRegister(Processor.regBadVAddr, 0);
+
+		trap().handle();
+
+		assertTrue(processor.readRegister(Processor.regBadVAddr) == 0);
+	}
+
+	public void testBlockCopyAcrossPages() throws Exception {
+		Memory memory = machine.memory();
+
+		byte[] data = new byte[Configuration.pageSize + 100];
+		for(int i = 0; i < data.length; i++){
+			data[i] = (byte) i;
+		}
+
+		// starts part way through page 1 and finishes in page 3
+		int vaddr = 2 * Configuration.pageSize - 52;
+		memory.writeBlock(vaddr, data, 0, data.length);
+
+		assertTrue(memory.readMem(vaddr, 1) == data[0]);
+		assertTrue(memory.readMem(vaddr + data.length - 4, 4) == ((data[data.length - 1] << 24) | ((data[data.length - 2] & 0xFF) << 16)
+				| ((data[data.length - 3] & 0xFF) << 8) | (data[data.length - 4] & 0xFF)));
+
+		byte[] read = new byte[data.length + 2];
+		memory.readBlock(vaddr, read, 1, data.length);
+
+		for(int i = 0; i < data.length; i++){
+			assertTrue(read[i + 1] == data[i]);
+		}
+	}
+
+	public void testBlockWriteInvalidatesCode() throws Exception {
+		// decode the first instruction then overwrite it with a nop
+		trap().handle();
+
+		processor.writeRegister(Processor.regPC, 0);
+		processor.writeRegister(Processor.regNextPC, 4);
+		machine.memory().writeBlock(0, new byte[4], 0, 4);
+
+		processor.run();
+
+		assertTrue(traps == 1);
+		assertTrue(processor.readRegister(Processor.regPC) == 4);
+	}
+
+	public void testStoreInvalidatesDecodedInstruction() throws Exception {
+		Memory memory = machine.memory();
+
+		// decode the first instruction
+		trap().handle();
+
+		assertNotNull(memory.decodeCache.get(0));
+
+		// overwrite it with a nop the way a store instruction would
+		memory.writeMem(0, 4, 0);
+
+		assertNull(memory.decodeCache.get(0));
+
+		processor.writeRegister(Processor.regPC, 0);
+		processor.writeRegister(Processor.regNextPC, 4);
+
+		processor.run();
+
+		assertTrue(traps == 1);
+		assertTrue(processor.readRegister(Processor.regPC) == 4);
+
+		// the next instruction is still a syscall
+		trap().handle();
+
+		assertTrue(traps == 2);
+	}
+
+	/**
+	 * A syscall round trip - trap, handler, return to user code - doesn't
+	 * allocate anything, so traps don't cost garbage collections.
+	 */
+	public void testSyscallRoundTripDoesntAllocate() throws Exception {
+		// only HotSpot and its relatives count what each thread allocates
+		if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)){
+			return;
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		int n = 100000;
+
+		// get the interpreter and handler compiled first
+		roundTrips(n);
+
+		long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		roundTrips(n);
+
+		long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+		// an exception with a stack trace would be hundreds of bytes a trap
+		assertTrue(allocated + " bytes for " + n + " traps", allocated < n);
+		assertTrue(traps == 2 * n);
+	}
+
+	public void testTranslatedBlockFaultsLikeInterpreter() throws Exception {
+		int[] program = {
+				itype(0x09, 0, 9, 0x400),	// addiu r9, r0, 0x400
+				itype(0x09, 0, 8, 1000),	// addiu r8, r0, 1000
+				itype(0x23, 9, 11, 0),		// loop: lw r11, 0(r9)
+				rtype(10, 11, 10, 0x21),	// addu r10, r10, r11
+				itype(0x2b, 9, 10, 4),		// sw r10, 4(r9) - runs off the end of memory
+				itype(0x09, 8, 8, -1),		// addiu r8, r8, -1
+				itype(0x05, 8, 0, -5),		// bne r8, r0, loop
+				itype(0x09, 9, 9, 4),		// addiu r9, r9, 4
+				syscall
+		};
+
+		int[] data = new int[3 * Configuration.pageSize / 4];
+
+		for(int i = 0; i < data.length; i++){
+			data[i] = i + 1;
+		}
+
+		Machine translated = compareTranslated(program, data);
+
+		assertTrue(translated.processor().readRegister(Processor.regCause) == MipsException.exceptionBusError);
+		assertTrue(translated.processor().readRegister(Processor.regPC) == 16);
+		assertNotNull(translated.memory().decodeCache.getBlock(8));
+	}
+
+	public void testTranslatedDelaySlotsLikeInterpreter() throws Exception {
+		int table = 0x400;
+		int values = 0x800;
+
+		int[] program = {
+				itype(0x09, 0, 13, table),	// addiu r13, r0, table
+				rtype(10, 11, 10, 0x21),	// loop: addu r10, r10, r11 - before the delay slot load lands
+				itype(0x23, 13, 9, 0),		// lw r9, 0(r13)
+				itype(0x09, 13, 13, 4),		// addiu r13, r13, 4
+				jtype(0x03, 36),		// jal func
+				itype(0x09, 12, 12, 1),		// addiu r12, r12, 1
+				itype(0x05, 9, 0, -6),		// bne r9, r0, loop
+				itype(0x23, 9, 11, 0),		// lw r11, 0(r9) - faults once the address is misaligned
+				syscall,
+				rtype(11, 31, 11, 0x21),	// func: addu r11, r11, r31
+				rtype(31, 0, 0, 0x08),		// jr r31
+				itype(0x09, 14, 14, 3),		// addiu r14, r14, 3
+		};
+
+		int[] data = new int[3 * Configuration.pageSize / 4];
+
+		for(int i = 0; i < 40; i++){
+			data[i] = values + 4 * i;
+		}
+
+		data[40] = values + 2;
+
+		for(int i = 0; i < 40; i++){
+			data[(values - table) / 4 + i] = 3 * i + 1;
+		}
+
+		Machine translated = compareTranslated(program, data);
+
+		assertTrue(translated.processor().readRegister(Processor.regCause) == MipsException.exceptionAddressError);
+		assertTrue(translated.processor().readRegister(Processor.regBadVAddr) == values + 2);
+		assertTrue(translated.processor().readRegister(14) == 41 * 3);
+		assertNotNull(translated.memory().decodeCache.getBlock(4));
+		assertNotNull(translated.memory().decodeCache.getBlock(24));
+	}
+
+	public void testCodeWrittenByBlockIsRetranslated() throws Exception {
+		int iterations = 40;
+		int rewriteOn = 20;
+
+		int replacement = itype(0x09, 10, 10, 100);	// addiu r10, r10, 100
+
+		int[] program = {
+				itype(0x09, 0, 13, 0x400),	// addiu r13, r0, 0x400
+				itype(0x09, 0, 8, iterations),	// addiu r8, r0, iterations
+				itype(0x0f, 0, 12, replacement >>> 16),	// lui r12, replacement
+				itype(0x0d, 12, 12, replacement),	// ori r12, r12, replacement
+				itype(0x23, 13, 15, 0),		// loop: lw r15, 0(r13)
+				itype(0x09, 13, 13, 4),		// addiu r13, r13, 4
+				itype(0x2b, 15, 12, 0),		// sw r12, 0(r15)
+				itype(0x09, 10, 10, 1),		// addiu r10, r10, 1
+				itype(0x09, 10, 10, 1),		// addiu r10, r10, 1 - replaced part way through
+				itype(0x09, 8, 8, -1),		// addiu r8, r8, -1
+				itype(0x05, 8, 0, -7),		// bne r8, r0, loop
+				0,				// nop
+				syscall
+		};
+
+		// stores go to the data page apart from one that rewrites the loop
+		int[] data = new int[3 * Configuration.pageSize / 4];
+
+		for(int i = 0; i < iterations; i++){
+			data[i] = 0x800 + 4 * i;
+		}
+
+		data[rewriteOn - 1] = 32;
+
+		Machine translated = compareTranslated(program, data);
+
+		assertTrue(translated.processor().readRegister(10) == 2 * (rewriteOn - 1) + 101 * (iterations - rewriteOn + 1));
+		assertNotNull(translated.memory().decodeCache.getBlock(16));
+	}
+
+	/**
+	 * Run a program with blocks translated and again without and check the two
+	 * leave the registers and memory the same
+	 *
+	 * @return the machine the program was translated on
+	 */
+	private Machine compareTranslated(int[] program, int[] data) throws Exception {
+		Configuration.translationThreshold = 2;
+
+		Machine interpreted = runProgram(false, program, data);
+		Machine translated = runProgram(true, program, data);
+
+		for(int i = 0; i < Processor.numUserRegisters; i++){
+			assertEquals("register " + i, interpreted.processor().readRegister(i), translated.processor().readRegister(i));
+		}
+
+		assertTrue(Arrays.equals(interpreted.memory().getMemory(), translated.memory().getMemory()));
+
+		return translated;
+	}
+
+	/**
+	 * Load a program at address 0 and its data at the start of the next page and
+	 * run it until it traps
+	 */
+	private Machine runProgram(boolean translate, int[] program, int[] data) throws Exception {
+		Configuration.translateBlocks = translate;
+
+		Machine machine = new Machine();
+		machine.createDevices();
+
+		Processor processor = machine.processor();
+		Memory memory = machine.memory();
+
+		for(int i = 0; i < program.length; i++){
+			memory.writeMem(4 * i, 4, program[i]);
+		}
+
+		for(int i = 0; i < data.length; i++){
+			memory.writeMem(Configuration.pageSize + 4 * i, 4, data[i]);
+		}
+
+		processor.writeRegister(Processor.regPC, 0);
+		processor.writeRegister(Processor.regNextPC, 4);
+
+		stopped = false;
+
+		processor.setExceptionHandler(new Runnable() {
+			public void run() {
+				stopped = true;
+			}
+		});
+
+		for(int i = 0; i < 100000 && !stopped; i++){
+			try {
+				processor.run();
+			} catch (MipsException e) {
+				e.handle();
+			}
+		}
+
+		assertTrue(stopped);
+
+		return machine;
+	}
+
+	private static int itype(int op, int rs, int rt, int imm) {
+		return op << 26 | rs << 21 | rt << 16 | (imm & 0xFFFF);
+	}
+
+	private static int jtype(int op, int target) {
+		return op << 26 | target >>> 2;
+	}
+
+	private static int rtype(int rs, int rt, int rd, int func) {
+		return rs << 21 | rt << 16 | rd << 11 | func;
+	}
+
+	private MipsException trap() {
+		try {
+			processor.run();
+		} catch (MipsException e) {
+			return e;
+		}
+
+		fail("syscall didn't trap");
+		return null;
+	}
+
+	private void roundTrips(int n) {
+		for(int i = 0; i < n; i++){
+			try {
+				processor.run();
+			} catch (MipsException e) {
+				e.handle();
+			}
+		}
+	}
+}
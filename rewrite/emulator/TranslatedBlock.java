@@ -0,0 +1,59 @@
+package emulator;
+
+/**
+ * A straight line run of instructions that has been translated into a list of
+ * operations specialised for their operands. A block ends with a branch and its
+ * delay slot, at the end of a page or just before an instruction that traps, so
+ * every operation in it can assume the previous one fell through to it.
+ *
+ * @author pauljohnson
+ *
+ */
+final class TranslatedBlock {
+	/**
+	 * A single translated instruction. Has exactly the same effect on the
+	 * registers, memory and delayed load as fetch, decode, execute and
+	 * writeBack would have had for the instruction it was translated from.
+	 */
+	static abstract class Op {
+		abstract void execute(Processor processor) throws MipsException;
+	}
+
+	private final Op[] ops;
+
+	/** Cleared when the page the block was translated from is written to */
+	boolean valid = true;
+
+	TranslatedBlock(Op[] ops) {
+		this.ops = ops;
+	}
+
+	/**
+	 * Run the block from the start. Stops early if one of its own instructions
+	 * overwrites the page it came from.
+	 *
+	 * @return false if the block is empty and the instruction has to be
+	 *         interpreted
+	 * @throws MipsException
+	 *             if one of the instructions traps, with the registers as the
+	 *             interpreter would have left them
+	 */
+	boolean execute(Processor processor) throws MipsException {
+		if (ops.length == 0) {
+			return false;
+		}
+
+		// counted up front, a trap part way through is rare enough not to matter
+		processor.instructions += ops.length;
+
+		for (Op op : ops) {
+			op.execute(processor);
+
+			if (!valid) {
+				break;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,655 @@
+package emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import machine.Configuration;
+import machine.Lib;
+
+import emulator.TranslatedBlock.Op;
+
+import static emulator.Processor.regHi;
+import static emulator.Processor.regLo;
+import static emulator.Processor.regNextPC;
+import static emulator.Processor.regPC;
+import static emulator.Processor.regRA;
+
+/**
+ * Translation tier for the processor. Counts how often each branch target is
+ * reached and once one has been reached <tt>Configuration.translationThreshold</tt>
+ * times translates the basic block starting there into a
+ * <tt>TranslatedBlock</tt>, which runs without going back through fetch,
+ * decode and the big switch in execute.
+ *
+ * <p>
+ * Common instructions get their own operation with the operands baked in.
+ * Everything else (overflow checks, multiply and divide, unaligned loads and
+ * stores, linking conditional branches) is run through the interpreter's own
+ * decode, execute and writeBack so it behaves exactly the same either way.
+ * Syscalls and invalid instructions are never translated.
+ *
+ * @author pauljohnson
+ *
+ */
+final class Translator {
+	private Processor processor;
+
+	Translator(Processor processor) {
+		this.processor = processor;
+	}
+
+	/**
+	 * Run the translated block starting at the current PC, translating it first
+	 * if it has become hot.
+	 *
+	 * @return false if there is no block and the instruction at the PC has to
+	 *         be interpreted
+	 * @throws MipsException
+	 *             if an instruction in the block traps
+	 */
+	boolean run() throws MipsException {
+		int[] registers = processor.registers;
+		int pc = registers[regPC];
+
+		// blocks assume they are entered with no branch in progress
+		if (registers[regNextPC] != pc + 4) {
+			return false;
+		}
+
+		Memory memory = processor.memory;
+		int paddr = memory.newTranslate(pc, 4, false);
+
+		TranslatedBlock block = memory.decodeCache.getBlock(paddr);
+
+		if (block == null) {
+			if (memory.decodeCache.hit(paddr) < Configuration.translationThreshold) {
+				return false;
+			}
+
+			block = translate(paddr);
+			memory.decodeCache.putBlock(paddr, block);
+		}
+
+		return block.execute(processor);
+	}
+
+	/**
+	 * Translate the block of instructions starting at a physical address. The
+	 * block never runs off the end of the physical page it starts on.
+	 */
+	private TranslatedBlock translate(int paddr) {
+		List<Op> ops = new ArrayList<Op>();
+
+		// the disassembler output comes from writeBack so leave it alone
+		if (!Lib.test(Processor.dbgFullDisassemble)) {
+			int pageEnd = (paddr / Configuration.pageSize + 1) * Configuration.pageSize;
+
+			for (int address = paddr; address < pageEnd; address += 4) {
+				DecodedInstruction instruction = decoded(address);
+
+				if (traps(instruction)) {
+					break;
+				}
+
+				if (Lib.test(Mips.BRANCH, instruction.flags)) {
+					// leave the branch to the interpreter unless its delay slot is simple
+					if (address + 4 >= pageEnd) {
+						break;
+					}
+
+					DecodedInstruction delaySlot = decoded(address + 4);
+
+					if (traps(delaySlot) || Lib.test(Mips.BRANCH, delaySlot.flags)) {
+						break;
+					}
+
+					ops.add(translate(instruction));
+					ops.add(translate(delaySlot));
+					break;
+				}
+
+				ops.add(translate(instruction));
+			}
+		}
+
+		return new TranslatedBlock(ops.toArray(new Op[ops.size()]));
+	}
+
+	private DecodedInstruction decoded(int paddr) {
+		DecodeCache cache = processor.memory.decodeCache;
+
+		DecodedInstruction instruction = cache.get(paddr);
+
+		if (instruction == null) {
+			instruction = new DecodedInstruction(processor.memory.readPhysicalWord(paddr));
+			cache.put(paddr, instruction);
+		}
+
+		return instruction;
+	}
+
+	private static boolean traps(DecodedInstruction instruction) {
+		switch (instruction.operation) {
+		case Mips.SYSCALL:
+		case Mips.UNIMPL:
+		case Mips.INVALID:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Pick the operation for a single instruction.
+	 */
+	private static Op translate(DecodedInstruction i) {
+		boolean overflow = Lib.test(Mips.OVERFLOW, i.flags);
+		boolean link = Lib.test(Mips.LINK, i.flags);
+
+		switch (i.operation) {
+		case Mips.ADD:
+			if (overflow)
+				break;
+			if (i.src2Imm)
+				return new AddImm(i.rs, i.dstReg, i.imm);
+			return new AddReg(i.rs, i.rt, i.dstReg);
+		case Mips.SUB:
+			if (overflow)
+				break;
+			return new SubReg(i.rs, i.rt, i.dstReg);
+		case Mips.AND:
+			if (i.src2Imm)
+				return new AndImm(i.rs, i.dstReg, i.imm);
+			return new AndReg(i.rs, i.rt, i.dstReg);
+		case Mips.OR:
+			if (i.src2Imm)
+				return new OrImm(i.rs, i.dstReg, i.imm);
+			return new OrReg(i.rs, i.rt, i.dstReg);
+		case Mips.XOR:
+			if (i.src2Imm)
+				return new XorImm(i.rs, i.dstReg, i.imm);
+			return new XorReg(i.rs, i.rt, i.dstReg);
+		case Mips.NOR:
+			return new NorReg(i.rs, i.rt, i.dstReg);
+		case Mips.SLT:
+			if (i.src2Imm)
+				return new SltImm(i.rs, i.dstReg, i.imm, i.unsigned);
+			return new SltReg(i.rs, i.rt, i.dstReg, i.unsigned);
+		case Mips.LUI:
+			return new Lui(i.dstReg, i.imm);
+		case Mips.SLL:
+		case Mips.SRA:
+		case Mips.SRL:
+			return new Shift(i.operation, i.src1Shift, i.sh, i.rs, i.rt, i.dstReg);
+		case Mips.MFLO:
+			return new MoveFrom(regLo, i.dstReg);
+		case Mips.MFHI:
+			return new MoveFrom(regHi, i.dstReg);
+		case Mips.LOAD:
+			return new Load(i.rs, i.dstReg, i.imm, i.size, i.unsigned);
+		case Mips.STORE:
+			return new Store(i.rs, i.rt, i.imm, i.size);
+		case Mips.BEQ:
+		case Mips.BNE:
+		case Mips.BLEZ:
+		case Mips.BGTZ:
+		case Mips.BLTZ:
+		case Mips.BGEZ:
+			if (link)
+				break;
+			return new Branch(i.operation, i.rs, i.rt, i.branchOffset);
+		case Mips.JUMP:
+			if (i.format == Mips.JFMT)
+				return new Jump(i.target << 2, link ? regRA : 0);
+			return new JumpRegister(i.rs, link ? i.dstReg : 0);
+		}
+
+		return new Interpreted(i);
+	}
+
+	/**
+	 * Finish the instruction the way writeBack does for one that doesn't
+	 * branch: complete any delayed load, write the destination register and
+	 * move on to the next instruction.
+	 */
+	private static void retire(Processor processor, int dstReg, int result) {
+		int[] registers = processor.registers;
+
+		processor.memory.finishLoad();
+
+		if (dstReg != 0)
+			registers[dstReg] = result;
+
+		registers[regPC] = registers[regNextPC];
+		registers[regNextPC] += 4;
+	}
+
+	/**
+	 * Finish a branch or jump, recording taken branches so that their targets
+	 * get counted.
+	 */
+	private static void branch(Processor processor, boolean taken, int target) {
+		int[] registers = processor.registers;
+		int delaySlot = registers[regNextPC];
+
+		processor.memory.finishLoad();
+
+		registers[regPC] = delaySlot;
+
+		if (taken) {
+			registers[regNextPC] = target;
+			processor.branchTarget = target;
+		} else {
+			registers[regNextPC] = delaySlot + 4;
+		}
+	}
+
+	private static final class Interpreted extends Op {
+		private final DecodedInstruction instruction;
+
+		Interpreted(DecodedInstruction instruction) {
+			this.instruction = instruction;
+		}
+
+		@Override
+		void execute(Processor processor) throws MipsException {
+			processor.instruction = instruction;
+			processor.decode();
+			processor.execute();
+			processor.writeBack();
+		}
+	}
+
+	private static final class AddReg extends Op {
+		private final int rs, rt, rd;
+
+		AddReg(int rs, int rt, int rd) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			retire(processor, rd, registers[rs] + registers[rt]);
+		}
+	}
+
+	private static final class AddImm extends Op {
+		private final int rs, rt, imm;
+
+		AddImm(int rs, int rt, int imm) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			retire(processor, rt, processor.registers[rs] + imm);
+		}
+	}
+
+	private static final class SubReg extends Op {
+		private final int rs, rt, rd;
+
+		SubReg(int rs, int rt, int rd) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			retire(processor, rd, registers[rs] - registers[rt]);
+		}
+	}
+
+	private static final class AndReg extends Op {
+		private final int rs, rt, rd;
+
+		AndReg(int rs, int rt, int rd) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			retire(processor, rd, registers[rs] & registers[rt]);
+		}
+	}
+
+	private static final class AndImm extends Op {
+		private final int rs, rt, imm;
+
+		AndImm(int rs, int rt, int imm) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			retire(processor, rt, processor.registers[rs] & imm);
+		}
+	}
+
+	private static final class OrReg extends Op {
+		private final int rs, rt, rd;
+
+		OrReg(int rs, int rt, int rd) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			retire(processor, rd, registers[rs] | registers[rt]);
+		}
+	}
+
+	private static final class OrImm extends Op {
+		private final int rs, rt, imm;
+
+		OrImm(int rs, int rt, int imm) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			retire(processor, rt, processor.registers[rs] | imm);
+		}
+	}
+
+	private static final class XorReg extends Op {
+		private final int rs, rt, rd;
+
+		XorReg(int rs, int rt, int rd) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			retire(processor, rd, registers[rs] ^ registers[rt]);
+		}
+	}
+
+	private static final class XorImm extends Op {
+		private final int rs, rt, imm;
+
+		XorImm(int rs, int rt, int imm) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			retire(processor, rt, processor.registers[rs] ^ imm);
+		}
+	}
+
+	private static final class NorReg extends Op {
+		private final int rs, rt, rd;
+
+		NorReg(int rs, int rt, int rd) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			retire(processor, rd, ~(registers[rs] | registers[rt]));
+		}
+	}
+
+	private static final class SltReg extends Op {
+		private final int rs, rt, rd;
+		private final boolean unsigned;
+
+		SltReg(int rs, int rt, int rd, boolean unsigned) {
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+			this.unsigned = unsigned;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			boolean less;
+
+			if (unsigned)
+				less = Integer.compareUnsigned(registers[rs], registers[rt]) < 0;
+			else
+				less = registers[rs] < registers[rt];
+
+			retire(processor, rd, less ? 1 : 0);
+		}
+	}
+
+	private static final class SltImm extends Op {
+		private final int rs, rt, imm;
+		private final boolean unsigned;
+
+		SltImm(int rs, int rt, int imm, boolean unsigned) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+			this.unsigned = unsigned;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			boolean less;
+
+			if (unsigned)
+				less = Integer.compareUnsigned(registers[rs], imm) < 0;
+			else
+				less = registers[rs] < imm;
+
+			retire(processor, rt, less ? 1 : 0);
+		}
+	}
+
+	private static final class Lui extends Op {
+		private final int rt, value;
+
+		Lui(int rt, int imm) {
+			this.rt = rt;
+			this.value = imm << 16;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			retire(processor, rt, value);
+		}
+	}
+
+	private static final class Shift extends Op {
+		private final int operation, sh, rs, rt, rd;
+		private final boolean byConstant;
+
+		Shift(int operation, boolean byConstant, int sh, int rs, int rt, int rd) {
+			this.operation = operation;
+			this.byConstant = byConstant;
+			this.sh = sh;
+			this.rs = rs;
+			this.rt = rt;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			int amount = (byConstant ? sh : registers[rs]) & 0x1F;
+			long value = registers[rt];
+			int result;
+
+			// same arithmetic on the sign extended value as execute()
+			if (operation == Mips.SLL)
+				result = (int) (value << amount);
+			else if (operation == Mips.SRA)
+				result = (int) (value >> amount);
+			else
+				result = (int) (value >>> amount);
+
+			retire(processor, rd, result);
+		}
+	}
+
+	private static final class MoveFrom extends Op {
+		private final int source, rd;
+
+		MoveFrom(int source, int rd) {
+			this.source = source;
+			this.rd = rd;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			retire(processor, rd, processor.registers[source]);
+		}
+	}
+
+	private static final class Load extends Op {
+		private final int rs, rt, imm, size;
+		private final boolean unsigned;
+
+		Load(int rs, int rt, int imm, int size, boolean unsigned) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+			this.size = size;
+			this.unsigned = unsigned;
+		}
+
+		@Override
+		void execute(Processor processor) throws MipsException {
+			int[] registers = processor.registers;
+			int value = processor.memory.readMem(registers[rs] + imm, size);
+
+			if (!unsigned)
+				value = Lib.extend(value, 0, size * 8);
+
+			processor.memory.delayedLoad(rt, value, 0xFFFFFFFF);
+
+			registers[regPC] = registers[regNextPC];
+			registers[regNextPC] += 4;
+		}
+	}
+
+	private static final class Store extends Op {
+		private final int rs, rt, imm, size;
+
+		Store(int rs, int rt, int imm, int size) {
+			this.rs = rs;
+			this.rt = rt;
+			this.imm = imm;
+			this.size = size;
+		}
+
+		@Override
+		void execute(Processor processor) throws MipsException {
+			int[] registers = processor.registers;
+			processor.memory.writeMem(registers[rs] + imm, size, registers[rt]);
+
+			retire(processor, 0, 0);
+		}
+	}
+
+	private static final class Branch extends Op {
+		private final int operation, rs, rt, offset;
+
+		Branch(int operation, int rs, int rt, int offset) {
+			this.operation = operation;
+			this.rs = rs;
+			this.rt = rt;
+			this.offset = offset;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			int src1 = registers[rs];
+			boolean taken;
+
+			switch (operation) {
+			case Mips.BEQ:
+				taken = src1 == registers[rt];
+				break;
+			case Mips.BNE:
+				taken = src1 != registers[rt];
+				break;
+			case Mips.BLEZ:
+				taken = src1 <= 0;
+				break;
+			case Mips.BGTZ:
+				taken = src1 > 0;
+				break;
+			case Mips.BLTZ:
+				taken = src1 < 0;
+				break;
+			default:
+				taken = src1 >= 0;
+				break;
+			}
+
+			branch(processor, taken, registers[regNextPC] + offset);
+		}
+	}
+
+	private static final class Jump extends Op {
+		private final int target, linkReg;
+
+		Jump(int target, int linkReg) {
+			this.target = target;
+			this.linkReg = linkReg;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			int delaySlot = registers[regNextPC];
+
+			branch(processor, true, (delaySlot & 0xF0000000) | target);
+
+			if (linkReg != 0)
+				registers[linkReg] = delaySlot + 4;
+		}
+	}
+
+	private static final class JumpRegister extends Op {
+		private final int rs, linkReg;
+
+		JumpRegister(int rs, int linkReg) {
+			this.rs = rs;
+			this.linkReg = linkReg;
+		}
+
+		@Override
+		void execute(Processor processor) {
+			int[] registers = processor.registers;
+			int delaySlot = registers[regNextPC];
+
+			branch(processor, true, registers[rs]);
+
+			if (linkReg != 0)
+				registers[linkReg] = delaySlot + 4;
+		}
+	}
+}
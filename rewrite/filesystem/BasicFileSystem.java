@@ -2,11 +2,8 @@ package filesystem;
 
 import hardware.HardDrive;
 import hardware.IOOperation;
-import hardware.Interrupt;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import emulator.MipsException;
 
@@ -219,6 +216,43 @@ public class BasicFileSystem implements FileSystem{
 	 * 
 	 */
 	public int read(int fid, int length, int memoryPointer, Kernel kernel, PCB process) {
+		return read(fid, length, null, memoryPointer, kernel, process, false);
+	}
+	
+	/**
+	 * Start reading from a file to the memory of the process without waiting for the drive. 
+	 * The drive operations are given to the kernel, which copies the data into memory as 
+	 * each one completes.
+	 * 
+	 * @return how many bytes will be read or -1 if there was an error
+	 */
+	public int startRead(int fid, int length, int memoryPointer, Kernel kernel, PCB process) {
+		return read(fid, length, null, memoryPointer, kernel, process, true);
+	}
+	
+	/**
+	 * Read from a file into an array in the kernel
+	 * 
+	 * @param fid id of the file to read from
+	 * @param data array to read into
+	 * @param offset where in data to start reading into
+	 * @param length number of bytes to read
+	 * @param process to get OpenFile from
+	 * @return how many bytes were read or -1 if there was an error, note might be less than length
+	 * 			if end of file has been reached.
+	 */
+	public int read(int fid, byte[] data, int offset, int length, PCB process) {
+		return read(fid, length, data, offset, null, process, false);
+	}
+	
+	/**
+	 * Read from a file into either an array or the memory of the process
+	 * 
+	 * @param buffer array to read into, or null to read into memory
+	 * @param pointer offset into buffer, or the address in memory to read into
+	 * @param async don't wait for the drive, the kernel copies the data into memory
+	 */
+	private int read(int fid, int length, byte[] buffer, int pointer, Kernel kernel, PCB process, boolean async) {
 		if(fid > Configuration.maxFiles || fid < 0){
 			return -1;
 		}
@@ -270,31 +304,42 @@ public class BasicFileSystem implements FileSystem{
 		int diskPosition;
 		
 		while(file.position < endPosition){
-			// read from disk into data array
-			byte[] data = new byte[blockLength];
-			
 			diskPosition = Configuration.fileOffset + (block * Configuration.blockSize) + blockOffset;
 			
-			int rval = readDrive(diskPosition, data);
-			
-			// check if disk returned an error
-			if(rval < 0){
-				return rval;
-			}
-			
-			// check bufferPointer page is in memory
-			kernel.checkInMemory(memoryPointer);
-			
-			// copy read data into memory
-			for(int i = 0; i < data.length; i++){
-				try {
-					machine.memory().writeMem(memoryPointer++, 1, data[i]);
-				// bad address - should not be page fault here
-				} catch (MipsException e) {
-					return -1;
+			if(async){
+				IOOperation operation = new IOOperation();
+				operation.action = HardDrive.read;
+				operation.position = diskPosition;
+				operation.length = blockLength;
+				operation.pointer = pointer;
+				
+				kernel.submitIO(process, operation);
+			}else{
+				// read from disk into data array
+				byte[] data = new byte[blockLength];
+				
+				int rval = readDrive(diskPosition, data);
+				
+				// check if disk returned an error
+				if(rval < 0){
+					return rval;
+				}
+				
+				if(buffer != null){
+					System.arraycopy(data, 0, buffer, pointer, data.length);
+				}else{
+					// copy read data into memory, bringing its pages into memory as needed
+					try {
+						kernel.copyOut(process, pointer, data, 0, data.length);
+					// bad address - should not be page fault here
+					} catch (MipsException e) {
+						return -1;
+					}
 				}
 			}
 			
+			pointer += blockLength;
+			
 			// block offset here will always be 0 since the first block is the only one that can have something different
 			blockOffset = 0;
 			
@@ -337,7 +382,23 @@ public class BasicFileSystem implements FileSystem{
 	 * 
 	 */
 	public int write(int fid, int length, int memoryPointer, Kernel kernel, PCB process) {
+		return write(fid, length, memoryPointer, kernel, process, false);
+	}
 	
+	/**
+	 * Start writing from memory to a file without waiting for the drive. The data is 
+	 * copied out of memory straight away and the drive operations are given to the kernel.
+	 * 
+	 * @return how many bytes will be written or -1 if there was an error
+	 */
+	public int startWrite(int fid, int length, int memoryPointer, Kernel kernel, PCB process) {
+		return write(fid, length, memoryPointer, kernel, process, true);
+	}
+	
+	/**
+	 * Write from memory to a file, either waiting for the drive or leaving the kernel to
+	 */
+	private int write(int fid, int length, int memoryPointer, Kernel kernel, PCB process, boolean async) {
 		if(fid > Configuration.maxFiles || fid < 0){
 			return -1;
 		}
@@ -375,7 +436,7 @@ public class BasicFileSystem implements FileSystem{
 				int newBlock = findFreeBlock();
 				
 				// write 0's to drive
-				writeDrive(Configuration.fileOffset + (newBlock*Configuration.blockSize), new byte[Configuration.blockSize]);
+				writeDrive(Configuration.fileOffset + (newBlock*Configuration.blockSize), new byte[Configuration.blockSize], async, kernel, process);
 				
 				fat[lastBlock] = newBlock;
 				lastBlock = newBlock;
@@ -428,8 +489,8 @@ public class BasicFileSystem implements FileSystem{
 
 				
 				// write changes in fat to disk
-				writeDrive(Configuration.bootBlockLength + (prevBlock * 4), Lib.bytesFromInt(newBlock));
-				writeDrive(Configuration.bootBlockLength + (newBlock * 4), Lib.bytesFromInt(-1));
+				writeDrive(Configuration.bootBlockLength + (prevBlock * 4), Lib.bytesFromInt(newBlock), async, kernel, process);
+				writeDrive(Configuration.bootBlockLength + (newBlock * 4), Lib.bytesFromInt(-1), async, kernel, process);
 				
 				block = newBlock;
 			}
@@ -437,20 +498,18 @@ public class BasicFileSystem implements FileSystem{
 			// read from memory to data
 			data = new byte[blockLength];
 			
-			kernel.checkInMemory(memoryPointer);
-			
-			for(int i = 0; i < blockLength; i++){
-				try {
-					data[i] = (byte)machine.memory().readMem(memoryPointer++, 1);
-				} catch (MipsException e) {
-					return -1;
-				}
+			try {
+				kernel.copyIn(process, memoryPointer, data, 0, blockLength);
+			} catch (MipsException e) {
+				return -1;
 			}
 			
+			memoryPointer += blockLength;
+			
 			// write to disk
 			diskPosition = Configuration.fileOffset + (block * Configuration.blockSize) + blockOffset;
 						
-			int rval = writeDrive(diskPosition, data);
+			int rval = writeDrive(diskPosition, data, async, kernel, process);
 			
 			if(rval < 0){
 				return -1;
@@ -583,7 +642,7 @@ public class BasicFileSystem implements FileSystem{
 				
 		machine.hd.operations.add(operation);
 		
-		waitForHardDrive();
+		waitForHardDrive(operation);
 		
 		System.arraycopy(operation.rdata, 0, data, 0, operation.rdata.length);
 		
@@ -605,40 +664,39 @@ public class BasicFileSystem implements FileSystem{
 		
 		machine.hd.operations.add(operation);
 		
-		waitForHardDrive();
+		waitForHardDrive(operation);
 		
 		return operation.rval;
 	}
 	
 	/**
-	 * Wait for the HardDrive to respond to our IO request.
+	 * Write to the hard drive, or if <i>async</i> give the operation to the kernel to
+	 * send to the drive for the process
 	 * 
-	 * @throws InterruptedException
+	 * @return the number of bytes written, or that will be written
 	 */
-	private void waitForHardDrive(){
-		List<Interrupt> reinterrupts = new ArrayList<Interrupt>();
-		
-		// take interrupts till we get a response from the hard disk
-		while(true){
-			Interrupt interrupt;
-			try {
-				interrupt = machine.getInterrupts().take();
-				
-				if(interrupt instanceof HardDrive){
-					interrupt.acknowledge();
-					break;
-				}else{
-					reinterrupts.add(interrupt);
-				}
-				
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+	private int writeDrive(int position, byte[] data, boolean async, Kernel kernel, PCB process){
+		if(!async){
+			return writeDrive(position, data);
 		}
 		
-		// add interrupts back to queue and continue
-		machine.getInterrupts().addAll(reinterrupts);
+		IOOperation operation = new IOOperation();
+		operation.action = HardDrive.write;
+		operation.position = position; 
+		operation.rdata = data;
+		
+		kernel.submitIO(process, operation);
+		
+		return data.length;
+	}
+	
+	/**
+	 * Wait for the HardDrive to respond to our IO request.
+	 * 
+	 * @throws InterruptedException
+	 */
+	private void waitForHardDrive(IOOperation operation){
+		machine.waitForHardDrive(operation);
 	}
 	
 	/**
@@ -14,8 +14,22 @@ public interface FileSystem {
 	
 	public int read(int fid, int length, int bufferPointer, Kernel kernel, PCB process);
 	
+	public int read(int fid, byte[] data, int offset, int length, PCB process);
+	
 	public int write(int fid, int length, int startPointer, Kernel kernel, PCB process);
 	
+	/**
+	 * Start a read into the memory of the process, handing the drive operations to
+	 * <tt>Kernel.submitIO</tt> instead of waiting for them
+	 */
+	public int startRead(int fid, int length, int bufferPointer, Kernel kernel, PCB process);
+	
+	/**
+	 * Start a write from the memory of the process, handing the drive operations to
+	 * <tt>Kernel.submitIO</tt> instead of waiting for them
+	 */
+	public int startWrite(int fid, int length, int startPointer, Kernel kernel, PCB process);
+	
 	public int unlink(String name);
 	
 	public void seek(int fid, int position, PCB process);
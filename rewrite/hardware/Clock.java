@@ -0,0 +1,125 @@
+package hardware;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Virtual time for devices simulated in the processor's thread instead of their own.
+ * Time is counted in instructions the processor has run. Devices schedule events for
+ * some time ahead and the processor runs them as it reaches that time, so a run goes as
+ * fast as the processor can and always turns out the same.
+ *
+ * @author pauljohnson
+ *
+ */
+public class Clock {
+	
+	/**
+	 * Something a device does at a point in virtual time
+	 */
+	public interface Event {
+		void fire();
+	}
+	
+	private static class Scheduled implements Comparable<Scheduled> {
+		long time;
+		
+		// events due at the same time fire in the order they were scheduled
+		long sequence;
+		
+		Event event;
+		
+		@Override
+		public int compareTo(Scheduled o) {
+			if(time != o.time){
+				return time < o.time ? -1 : 1;
+			}
+			
+			return sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0;
+		}
+	}
+	
+	private long time = 0;
+	
+	private long sequence = 0;
+	
+	private PriorityQueue<Scheduled> events = new PriorityQueue<Scheduled>();
+	
+	// events fired every time the clock moves, for devices waiting for work to turn up
+	private List<Event> watchers = new ArrayList<Event>();
+	
+	/**
+	 * The current virtual time
+	 */
+	public long time() {
+		return time;
+	}
+	
+	/**
+	 * Fire an event <i>delay</i> instructions from now
+	 */
+	public void schedule(long delay, Event event) {
+		Scheduled scheduled = new Scheduled();
+		scheduled.time = time + Math.max(delay, 1);
+		scheduled.sequence = sequence++;
+		scheduled.event = event;
+		
+		events.add(scheduled);
+	}
+	
+	/**
+	 * Fire an event whenever the clock moves
+	 */
+	public void watch(Event event) {
+		watchers.add(event);
+	}
+	
+	/**
+	 * Move time on by the number of instructions the processor has run and fire the events
+	 * that are due
+	 */
+	public void advance(long instructions) {
+		watch();
+		
+		time += instructions;
+		
+		fireDue();
+	}
+	
+	/**
+	 * Jump straight to the next event when the processor is waiting for one
+	 *
+	 * @return false if there aren't any events to wait for
+	 */
+	public boolean skip() {
+		watch();
+		
+		if(events.isEmpty()){
+			return false;
+		}
+		
+		time = Math.max(time, events.peek().time);
+		
+		fireDue();
+		
+		return true;
+	}
+	
+	/**
+	 * Let devices start work that turned up since the clock last moved, as if it had
+	 * started then
+	 */
+	private void watch() {
+		for(Event watcher : watchers){
+			watcher.fire();
+		}
+	}
+	
+	private void fireDue() {
+		while(!events.isEmpty() && events.peek().time <= time){
+			events.poll().event.fire();
+		}
+	}
+
+}
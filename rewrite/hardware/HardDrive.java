@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import machine.Configuration;
@@ -18,6 +19,12 @@ public class HardDrive extends Interrupt{
 	// queue of IO Operations
 	public LinkedBlockingQueue<IOOperation> operations = new LinkedBlockingQueue<IOOperation>();
 	
+	// operations the drive has finished, taken off by the kernel when it handles the interrupt
+	public ConcurrentLinkedQueue<IOOperation> completions = new ConcurrentLinkedQueue<IOOperation>();
+	
+	// operation the drive is working on in virtual time
+	private IOOperation current;
+	
 	
 	private RandomAccessFile raf;
 	
@@ -29,32 +36,11 @@ public class HardDrive extends Interrupt{
 	@Override
 	public void run() {
 		while(true){
-			IOOperation operation;
+			IOOperation operation = null;
 			try {
 				operation = operations.take();
-				try {					
-					if(operation.position < 0 || operation.position > Configuration.blockSize * Configuration.numberOfBlocks){
-						operation.rval = -1;
-					}else{
-						switch(operation.action){
-						case(read):
-							raf.seek(operation.position);
-							operation.rdata = new byte[operation.length];
-	
-							operation.rval = raf.read(operation.rdata);
-	
-							break;
-						case(write):
-							raf.seek(operation.position);
-							raf.write(operation.rdata);
-							operation.rval = operation.rdata.length;
-							break;
-						}
-					}
-				}catch(Exception e){
-					e.printStackTrace();
-					operation.rval = -1;
-				}
+				
+				perform(operation);
 			} catch (InterruptedException e1) {
 				e1.printStackTrace();
 			}
@@ -65,9 +51,69 @@ public class HardDrive extends Interrupt{
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
-			// interrupt
+			// interrupt, carrying on with the next operation while the kernel handles it
+			completions.add(operation);
+			
 			interrupt();
 
 		}
 	}
+	
+	/**
+	 * Run the drive on a virtual clock instead of in its own thread. Each operation takes 
+	 * <i>latency</i> instructions.
+	 */
+	public void start(final Clock clock, final long latency){
+		final Clock.Event complete = new Clock.Event() {
+			public void fire() {
+				completions.add(current);
+				current = null;
+				
+				interrupt();
+			}
+		};
+		
+		clock.watch(new Clock.Event() {
+			public void fire() {
+				if(current == null){
+					current = operations.poll();
+					
+					if(current != null){
+						perform(current);
+						
+						clock.schedule(latency, complete);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Read or write the disk file for an operation
+	 */
+	private void perform(IOOperation operation){
+		try {					
+			if(operation.position < 0 || operation.position > Configuration.diskLength){
+				operation.rval = -1;
+			}else{
+				switch(operation.action){
+				case(read):
+					raf.seek(operation.position);
+					operation.rdata = new byte[operation.length];
+
+					operation.rval = raf.read(operation.rdata);
+
+					break;
+				case(write):
+					raf.seek(operation.position);
+					raf.write(operation.rdata);
+					operation.rval = operation.rdata.length;
+					break;
+				}
+			}
+		}catch(Exception e){
+			e.printStackTrace();
+			operation.rval = -1;
+		}
+	}
 }
@@ -42,6 +42,9 @@ public class HardwareTest extends TestCase{
 		
 		interruptQueue.take();
 		
+		// the drive says which operation it is interrupting about
+		assertTrue(hd.completions.poll() == writeOp);
+		
 		hd.acknowledge();
 		
 		assertTrue(writeOp.rval == 10);
@@ -56,6 +59,8 @@ public class HardwareTest extends TestCase{
 		
 		interruptQueue.take();
 		
+		assertTrue(hd.completions.poll() == readOp);
+		
 		hd.acknowledge();
 		
 		assertTrue(Arrays.equals(testData, readOp.rdata));
@@ -78,4 +83,77 @@ public class HardwareTest extends TestCase{
 		
 		
 	}
+	
+	public void testHardDriveOnVirtualClock() throws Exception{
+		HardDrive hd = new HardDrive();
+		Clock clock = new Clock();
+		
+		PriorityBlockingQueue<Interrupt> interruptQueue = new PriorityBlockingQueue<Interrupt>();
+		
+		hd.setQueue(interruptQueue);
+		hd.start(clock, 100);
+		
+		IOOperation writeOp = new IOOperation();
+		writeOp.action = HardDrive.write;
+		writeOp.position = 0;
+		writeOp.rdata = new byte[]{1,2,3,4};
+		
+		IOOperation readOp = new IOOperation();
+		readOp.action = HardDrive.read;
+		readOp.position = 0;
+		readOp.length = 4;
+		
+		hd.operations.add(writeOp);
+		hd.operations.add(readOp);
+		
+		// the operation takes 100 instructions
+		clock.advance(99);
+		assertTrue(interruptQueue.isEmpty());
+		
+		clock.advance(1);
+		assertTrue(interruptQueue.poll() == hd);
+		assertTrue(writeOp.rval == 4);
+		
+		// the drive carries on with the next operation while the interrupt is handled, 
+		// adding to the completions without interrupting again
+		clock.advance(100);
+		assertTrue(interruptQueue.isEmpty());
+		
+		hd.acknowledge();
+		
+		assertTrue(hd.completions.poll() == writeOp);
+		assertTrue(hd.completions.poll() == readOp);
+		assertTrue(Arrays.equals(new byte[]{1,2,3,4}, readOp.rdata));
+		
+		// waiting for one skips straight to when it completes
+		hd.operations.add(readOp);
+		
+		assertTrue(clock.skip());
+		assertEquals(300, clock.time());
+		
+		assertTrue(interruptQueue.poll() == hd);
+		assertTrue(hd.completions.poll() == readOp);
+	}
+	
+	public void testTimerOnVirtualClock() throws Exception{
+		Timer timer = new Timer(0);
+		Clock clock = new Clock();
+		
+		PriorityBlockingQueue<Interrupt> interruptQueue = new PriorityBlockingQueue<Interrupt>();
+		
+		timer.setQueue(interruptQueue);
+		timer.start(clock, 10);
+		
+		clock.advance(25);
+		
+		// the second tick is missed while the first hasn't been acknowledged
+		assertEquals(1, interruptQueue.size());
+		
+		interruptQueue.take();
+		timer.acknowledge();
+		
+		clock.advance(10);
+		
+		assertEquals(1, interruptQueue.size());
+	}
 }
@@ -19,4 +19,7 @@ public class IOOperation {
 	
 	// file system stuff
 	public int position;
+	
+	// process waiting for the operation, null if the kernel is waiting for it itself
+	public PCB process;
 }
@@ -1,9 +1,12 @@
 package hardware;
 
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Abstract class for implementing interrupt driven hard ware.
+ * Abstract class for implementing interrupt driven hard ware. Interrupting doesn't wait 
+ * for the kernel - a device that has more to report than the interrupt itself puts it 
+ * somewhere the kernel can take it from, like the hard drive's completions, and carries on.
  * 
  * @author pauljohnson
  *
@@ -13,29 +16,57 @@ public abstract class Interrupt implements Runnable, Comparable<Interrupt> {
 
 	protected PriorityBlockingQueue<Interrupt> queue;
 	
+	// count of interrupts in the queue, shared with whoever takes them off it
+	protected AtomicInteger pending;
+	
 	protected int priority = 0;
 	
+	// the interrupt is on the queue or being handled and hasn't been acknowledged yet
+	protected boolean posted = false;
+	
 	public void setQueue(PriorityBlockingQueue<Interrupt> queue){
 		this.queue = queue;
 	}
 	
+	/**
+	 * Set the queue to interrupt on and a counter to increment after each interrupt is 
+	 * added to it, so that the processor can tell if anything is waiting without locking
+	 * the queue.
+	 */
+	public void setQueue(PriorityBlockingQueue<Interrupt> queue, AtomicInteger pending){
+		this.queue = queue;
+		this.pending = pending;
+	}
+	
 	public void setPriority(int priority){
 		this.priority = priority;
 	}
 	
+	/**
+	 * Put the interrupt on the queue without waiting for it to be handled. If it is already 
+	 * there and hasn't been acknowledged this does nothing, the kernel will see whatever 
+	 * the device has added since when it handles that one.
+	 */
 	public synchronized void interrupt(){
+		if(posted){
+			return;
+		}
+		
+		posted = true;
+		
 		queue.add(this);
 		
-		try {
-			wait();
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if(pending != null){
+			pending.incrementAndGet();
 		}
 	}
 	
+	/**
+	 * Called by the kernel when it starts handling the interrupt, so anything the device 
+	 * reports from then on interrupts again
+	 */
 	public synchronized void acknowledge(){
-		notify();
+		posted = false;
 	}
 	
 	@Override
@@ -26,5 +26,19 @@ public class Timer extends Interrupt {
 			interrupt();
 		}
 	}
+	
+	/**
+	 * Interrupt every <i>period</i> instructions of virtual time instead of running in a 
+	 * thread. A tick is missed if the last one still hasn't been acknowledged.
+	 */
+	public void start(final Clock clock, final long period){
+		clock.schedule(period, new Clock.Event() {
+			public void fire() {
+				interrupt();
+				
+				clock.schedule(period, this);
+			}
+		});
+	}
 
 }
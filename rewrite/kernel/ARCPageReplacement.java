@@ -0,0 +1,111 @@
+package kernel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import machine.Page;
+
+/**
+ * Adaptive replacement cache. Memory is split between pages used once
+ * recently (t1) and pages used more than once (t2), with ghost lists of pages
+ * recently replaced from each (b1 and b2). A fault on a ghost page moves the
+ * target size of t1 towards whichever list it came from, so the split adapts
+ * to the mix of scans and loops the programs are doing.
+ *
+ * @author pauljohnson
+ *
+ */
+public class ARCPageReplacement extends AbstractPageReplacement {
+	
+	private int c = frames.size();
+	
+	// frames of pages used once and more than once recently, least recently used first
+	private LinkedHashSet<Integer> t1 = new LinkedHashSet<Integer>();
+	private LinkedHashSet<Integer> t2 = new LinkedHashSet<Integer>();
+	
+	// pages recently replaced from t1 and t2
+	private LinkedHashSet<Page> b1 = new LinkedHashSet<Page>();
+	private LinkedHashSet<Page> b2 = new LinkedHashSet<Page>();
+	
+	// target size of t1
+	private int p = 0;
+	
+	@Override
+	public boolean tick() {
+		super.tick();
+		
+		return sample();
+	}
+	
+	@Override
+	protected void referenced(int ppn) {
+		// used again - move to the most recently used end of t2
+		if(t1.remove(ppn) || t2.remove(ppn)){
+			t2.add(ppn);
+		}
+	}
+	
+	@Override
+	protected void loaded(int ppn, Page page) {
+		if(b1.remove(page) | b2.remove(page)){
+			t2.add(ppn);
+		}else{
+			t1.add(ppn);
+		}
+	}
+	
+	@Override
+	protected void removed(int ppn) {
+		t1.remove(ppn);
+		t2.remove(ppn);
+	}
+	
+	/**
+	 * Pages go from the least recently used end of t1 and then t2
+	 */
+	@Override
+	public Page pageToClean() {
+		List<Integer> order = new ArrayList<Integer>(t1);
+		order.addAll(t2);
+		
+		return firstDirty(order);
+	}
+	
+	@Override
+	protected int selectVictim(Page pageToLoad) {
+		sample();
+		
+		boolean inB2 = b2.contains(pageToLoad);
+		
+		if(b1.contains(pageToLoad)){
+			p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+		}else if(inB2){
+			p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+		}else if(t1.size() + b1.size() >= c){
+			if(t1.size() < c){
+				removeFirst(b1);
+			}else{
+				// t1 is all of memory - drop its oldest page without remembering it
+				return removeFirst(t1);
+			}
+		}else if(t1.size() + t2.size() + b1.size() + b2.size() >= 2 * c){
+			removeFirst(b2);
+		}
+		
+		if(!t1.isEmpty() && (t1.size() > p || (inB2 && t1.size() == p) || t2.isEmpty())){
+			int ppn = removeFirst(t1);
+			
+			b1.add(frames.get(ppn));
+			
+			return ppn;
+		}else{
+			int ppn = removeFirst(t2);
+			
+			b2.add(frames.get(ppn));
+			
+			return ppn;
+		}
+	}
+	
+}
@@ -0,0 +1,219 @@
+package kernel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import machine.Configuration;
+import machine.Page;
+
+/**
+ * Common parts of the page replacement algorithms. Keeps the frame table and
+ * gives out free frames, only asking the algorithm to pick a page to replace
+ * once memory is full.
+ *
+ * @author pauljohnson
+ *
+ */
+public abstract class AbstractPageReplacement implements PageReplacement {
+	protected FrameTable frames = new FrameTable();
+	
+	/** number of timer ticks so far */
+	protected long ticks;
+	
+	private Page replacementPage;
+	private int physicalPageNumber;
+	
+	/**
+	 * Pick the frame to load a page into when there are none free. The page
+	 * in it is replaced.
+	 *
+	 * @param pageToLoad page that is going to be loaded into the frame
+	 * @return the frame
+	 */
+	protected abstract int selectVictim(Page pageToLoad);
+	
+	/**
+	 * Called when a page has been given a frame
+	 */
+	protected void loaded(int ppn, Page page){
+	}
+	
+	/**
+	 * Called when a frame is given back because its process has exited
+	 */
+	protected void removed(int ppn){
+	}
+	
+	/**
+	 * Called by sample() for each frame that has been used since it was last looked at
+	 */
+	protected void referenced(int ppn){
+	}
+	
+	@Override
+	public void replace(Page pageToLoad) {
+		replacementPage = null;
+		physicalPageNumber = frames.allocate();
+		
+		if(physicalPageNumber == -1){
+			physicalPageNumber = selectVictim(pageToLoad);
+			replacementPage = frames.get(physicalPageNumber);
+		}
+		
+		frames.set(physicalPageNumber, pageToLoad);
+		
+		loaded(physicalPageNumber, pageToLoad);
+	}
+	
+	@Override
+	public int getPhysicalPageNumber() {
+		return physicalPageNumber;
+	}
+	
+	@Override
+	public Page getReplacedPage() {
+		return replacementPage;
+	}
+	
+	@Override
+	public void setPage(int ppn, Page page) {
+		frames.set(ppn, page);
+	}
+	
+	@Override
+	public void addProcess(PCB pcb) {
+	}
+	
+	/**
+	 * Give back the frames of a process that has exited
+	 */
+	@Override
+	public void removeProcess(PCB pcb) {
+		for(Page page : pcb.pageTable){
+			if(page != null && page.isPresent() && frames.get(page.getPpn()) == page){
+				frames.free(page.getPpn());
+				
+				removed(page.getPpn());
+			}
+		}
+	}
+	
+	@Override
+	public boolean tick() {
+		ticks++;
+		
+		return false;
+	}
+	
+	/**
+	 * Goes round the frames from the one given by cleanerStart(), unused pages first as
+	 * a clock would
+	 */
+	@Override
+	public Page pageToClean() {
+		List<Integer> order = new ArrayList<Integer>();
+		List<Integer> used = new ArrayList<Integer>();
+		
+		int start = cleanerStart();
+		
+		for(int i = 0; i < frames.size(); i++){
+			int ppn = (start + i) % frames.size();
+			
+			if(frames.get(ppn) != null && frames.get(ppn).isUsed()){
+				used.add(ppn);
+			}else{
+				order.add(ppn);
+			}
+		}
+		
+		order.addAll(used);
+		
+		return firstDirty(order);
+	}
+	
+	/**
+	 * @return the frame the algorithm will look at first when it next replaces a page
+	 */
+	protected int cleanerStart(){
+		return 0;
+	}
+	
+	/**
+	 * @param order frames in about the order the algorithm will replace their pages in
+	 * @return the first dirty page in the next <tt>Configuration.cleanFrames</tt> frames, or 
+	 * 			null if they are all clean
+	 */
+	protected Page firstDirty(Iterable<Integer> order){
+		int looked = 0;
+		
+		for(int ppn : order){
+			if(looked++ == Configuration.cleanFrames){
+				break;
+			}
+			
+			Page page = frames.get(ppn);
+			
+			if(page != null && page.isDirty()){
+				return page;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Check and clear the used bit of the page in a frame, and of any other pages
+	 * sharing the frame with it
+	 *
+	 * @return whether any of them had been used
+	 */
+	protected boolean testAndClear(int ppn){
+		Page page = frames.get(ppn);
+		
+		boolean used = page.isUsed();
+		page.setUsed(false);
+		
+		if(page.sharers != null){
+			for(Page other : page.sharers){
+				if(other.isPresent() && other.getPpn() == ppn){
+					used |= other.isUsed();
+					other.setUsed(false);
+				}
+			}
+		}
+		
+		return used;
+	}
+	
+	/**
+	 * Call referenced() for every frame that has been used since it was last looked at
+	 *
+	 * @return whether any used bits were cleared
+	 */
+	protected boolean sample(){
+		boolean cleared = false;
+		
+		for(int ppn = 0; ppn < frames.size(); ppn++){
+			if(frames.get(ppn) != null && testAndClear(ppn)){
+				referenced(ppn);
+				cleared = true;
+			}
+		}
+		
+		return cleared;
+	}
+	
+	/**
+	 * Take the oldest entry out of a queue of frames or pages
+	 */
+	protected static <T> T removeFirst(LinkedHashSet<T> queue){
+		Iterator<T> it = queue.iterator();
+		
+		T first = it.next();
+		it.remove();
+		
+		return first;
+	}
+}
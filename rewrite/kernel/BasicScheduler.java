@@ -1,45 +1,45 @@
 package kernel;
 
-import machine.Configuration;
-
 /**
- * Basic round robin Scheduler
+ * Basic round robin Scheduler. Ready processes wait in a queue so picking the
+ * next one takes the same time however many processes there are.
  * @author pauljohnson
  *
  */
 public class BasicScheduler implements Scheduler {
-
-	private PCB[] processes = new PCB[Configuration.maxProcesses];
 	
-	private int next = 0;
+	private ReadyQueue readyQueue = new ReadyQueue();
 	
 	@Override
 	public PCB schedule(PCB currentProcess) {
-
-		int first = next;
-		
-		for(int i = 0; i < Configuration.maxProcesses ; i++){
-			next = (first + i) % Configuration.maxProcesses;
-			PCB process = processes[next];
-			
-			if(process != null && process.state == PCB.ready){
-				next++;
-				return process;
-			}
-		}
-		 
-		return null;
+		return readyQueue.poll();
 	}
-
+	
 	@Override
 	public void addProcess(PCB pcb) {
-		// TODO Auto-generated method stub
-		processes[pcb.pid] = pcb;
+		if(pcb.state == PCB.ready){
+			readyQueue.add(pcb);
+		}
 	}
 	
 	@Override
 	public void removeProcess(PCB pcb){
-		processes[pcb.pid] = null;
+		readyQueue.remove(pcb);
+	}
+	
+	@Override
+	public void ready(PCB pcb) {
+		readyQueue.add(pcb);
+	}
+	
+	@Override
+	public void waiting(PCB pcb) {
+		readyQueue.remove(pcb);
+	}
+	
+	@Override
+	public boolean preempt(PCB currentProcess) {
+		return false;
 	}
 
 }
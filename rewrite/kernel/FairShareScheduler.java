@@ -0,0 +1,118 @@
+package kernel;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+import machine.Configuration;
+
+/**
+ * Fair share scheduler, after Linux's completely fair scheduler. Each process
+ * has a virtual runtime - the instructions it has run, scaled down by its
+ * weight - and the ready process with the lowest goes next, so over time every
+ * process gets a share of the processor in proportion to its weight. The ready
+ * processes are kept in a balanced tree ordered by virtual runtime.
+ * <p>
+ * Rather than a fixed quantum, <tt>Configuration.schedLatency</tt> ticks are
+ * shared out between the ready processes by weight, so each one runs again
+ * within about that long. A process that has been waiting starts again from
+ * the lowest virtual runtime of the others, so it can't save up time while it
+ * waits and then hold on to the processor.
+ *
+ * @author pauljohnson
+ *
+ */
+public class FairShareScheduler implements Scheduler {
+	
+	// lowest virtual runtime first, the pid keeps processes with the same runtime apart
+	private TreeSet<PCB> tree = new TreeSet<PCB>(new Comparator<PCB>() {
+		public int compare(PCB a, PCB b) {
+			if(a.vruntime != b.vruntime){
+				return Long.compare(a.vruntime, b.vruntime);
+			}
+			
+			return Integer.compare(a.pid, b.pid);
+		}
+	});
+	
+	// total weight of the processes in the tree
+	private long readyWeight = 0;
+	
+	// only ever goes up, a process never starts below it
+	private long minVruntime = 0;
+	
+	@Override
+	public PCB schedule(PCB currentProcess) {
+		PCB next = tree.pollFirst();
+		
+		if(next == null){
+			return null;
+		}
+		
+		// its share of the latency among the processes that are ready with it
+		long share = Configuration.schedLatency * next.weight / readyWeight;
+		
+		readyWeight -= next.weight;
+		
+		next.quantum = (int) Math.max(Configuration.minGranularity, share);
+		
+		minVruntime = Math.max(minVruntime, next.vruntime);
+		
+		return next;
+	}
+	
+	@Override
+	public void addProcess(PCB pcb) {
+		pcb.charged = pcb.instructions;
+		
+		if(pcb.state == PCB.ready){
+			ready(pcb);
+		}
+	}
+	
+	@Override
+	public void removeProcess(PCB pcb) {
+		remove(pcb);
+	}
+	
+	@Override
+	public void ready(PCB pcb) {
+		// the key can't change while the process is in the tree
+		remove(pcb);
+		
+		pcb.vruntime += (pcb.instructions - pcb.charged) * Configuration.defaultWeight / pcb.weight;
+		pcb.charged = pcb.instructions;
+		
+		pcb.vruntime = Math.max(pcb.vruntime, minVruntime);
+		
+		tree.add(pcb);
+		readyWeight += pcb.weight;
+	}
+	
+	@Override
+	public void waiting(PCB pcb) {
+		remove(pcb);
+	}
+	
+	/**
+	 * The running process's slice shrinks as other processes become ready, so it comes
+	 * off once it has had its share of the latency among them. A process with a low weight 
+	 * gives way almost as soon as anything else can run.
+	 */
+	@Override
+	public boolean preempt(PCB currentProcess) {
+		if(tree.isEmpty()){
+			return false;
+		}
+		
+		long share = Configuration.schedLatency * currentProcess.weight / (readyWeight + currentProcess.weight);
+		
+		return currentProcess.ticks >= Math.max(Configuration.minGranularity, share);
+	}
+	
+	private void remove(PCB pcb) {
+		if(tree.remove(pcb)){
+			readyWeight -= pcb.weight;
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package kernel;
+
+import machine.Configuration;
+import machine.Page;
+
+/**
+ * Which page owns each physical page (frame) of memory. Free frames are kept
+ * on a stack so finding one doesn't need a search.
+ *
+ * @author pauljohnson
+ *
+ */
+public class FrameTable {
+	private Page[] pages = new Page[Configuration.numPhysPages];
+	
+	// stack of free frames
+	private int[] free = new int[Configuration.numPhysPages];
+	private int numFree;
+	
+	public FrameTable() {
+		// hand out the lowest frames first
+		for(int i = 0; i < free.length; i++){
+			free[i] = free.length - 1 - i;
+		}
+		
+		numFree = free.length;
+	}
+	
+	/**
+	 * Take a free frame
+	 *
+	 * @return the frame or -1 if they are all in use
+	 */
+	public int allocate(){
+		if(numFree == 0){
+			return -1;
+		}
+		
+		return free[--numFree];
+	}
+	
+	/**
+	 * Give a frame back
+	 */
+	public void free(int ppn){
+		pages[ppn] = null;
+		free[numFree++] = ppn;
+	}
+	
+	/**
+	 * @return the page that owns a frame, null if the frame is free
+	 */
+	public Page get(int ppn){
+		return pages[ppn];
+	}
+	
+	public void set(int ppn, Page page){
+		pages[ppn] = page;
+	}
+	
+	/**
+	 * @return the number of frames
+	 */
+	public int size(){
+		return pages.length;
+	}
+}
@@ -3,22 +3,28 @@ package kernel;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import coff.CoffLoadException;
 import coff.Loader;
 
+import hardware.HardDrive;
+import hardware.IOOperation;
 import hardware.Interrupt;
 import hardware.Timer;
 import emulator.Memory;
 import emulator.MipsException;
 import emulator.Processor;
 import filesystem.FileTableEntry;
+import filesystem.OpenFile;
 import filesystem.FileSystem;
 
 import machine.Configuration;
 import machine.Lib;
 import machine.Page;
+import machine.PageTable;
 import machine.Machine;
 import static emulator.MipsException.*;
 
@@ -32,6 +38,23 @@ public class Kernel implements Runnable{
 	// list of system processes
 	public PCB[] processes = new PCB[Configuration.maxProcesses];
 	
+	// where evicted pages are written
+	SwapSpace swap;
+	
+	// buffer for moving pages between memory and the disk
+	private byte[] pageBuffer = new byte[Configuration.pageSize];
+	
+	// pages of read only program sections shared by every process running the program, keyed by 
+	// the first block of the program file and the virtual page number
+	private Map<Long, List<Page>> textPages = new HashMap<Long, List<Page>>();
+	
+	// stack and uninitialized data pages that haven't been written to and are mapped to the
+	// zero filled physical page, null if there isn't one in memory
+	private List<Page> zeroPages = null;
+	
+	// drive operations processes were waiting for that have completed but haven't been finished off
+	private List<IOOperation> completedIO = new ArrayList<IOOperation>();
+	
 	// current running process
 	public PCB process;
 	
@@ -55,8 +78,13 @@ public class Kernel implements Runnable{
 	
 	private Machine machine;
 	
+	// instruction count of the processor when the current process went on it
+	private long switchedAt;
+	
 	public Kernel(Machine machine){
 		this.machine = machine;
+		
+		this.swap = new SwapSpace(machine);
 	}
 	
 	/**
@@ -82,6 +110,8 @@ public class Kernel implements Runnable{
 			tlbMiss();
 			break;
 		case exceptionReadOnly:
+			readOnly();
+			break;
 		case exceptionBusError:
 		case exceptionAddressError:
 		case exceptionOverflow:
@@ -90,15 +120,14 @@ public class Kernel implements Runnable{
 			break;
 		case exceptionInterrupt:
 			interrupt();
-			
-			if(process.ticks > process.quantum){
-				//machine.processor().advancePC();
-			}
 			break;
 		default:
 			throw new KernelFault("Unknown Processor Exception");
 		}
 		
+		// wake processes whose IO completed while the kernel was busy
+		finishIO();
+		
 		// schedule the next process to run
 		schedule();
 
@@ -110,14 +139,18 @@ public class Kernel implements Runnable{
 	 */
 	public void schedule(){
 		// do nothing
-		if(process != null && process.ticks < process.quantum && process.state == PCB.running){
+		if(process != null && process.ticks < process.quantum && process.state == PCB.running 
+				&& !scheduler.preempt(process)){
 			return;
 		}
 				
 		// save current process
 		if(process != null){		
+			// charge the process for what it ran before the scheduler looks at it
+			process.instructions += machine.processor().instructions - switchedAt;
+			
 			if(process.state == PCB.running)
-				process.state = PCB.ready;
+				makeReady(process);
 			
 			// save registers
 			for (int i = 0; i < Processor.numUserRegisters; i++){
@@ -131,10 +164,16 @@ public class Kernel implements Runnable{
 		if(process != null)
 			process.ticks = 0;
 		
+		// nothing can run until an interrupt makes a process ready, so stop the processor till then
 		if(nextProcess == null){
-			throw new KernelFault("No Processes available for scheduling");
+			process = null;
+			
+			machine.processor().waitForInterrupt = true;
+			return;
 		}
 		
+		machine.processor().waitForInterrupt = false;
+		
 		// restore next process
 		for (int i = 0; i < Processor.numUserRegisters; i++){
 			machine.processor().writeRegister(i, nextProcess.userRegisters[i]);
@@ -142,6 +181,8 @@ public class Kernel implements Runnable{
 		
 		nextProcess.state = PCB.running;
 		
+		switchedAt = machine.processor().instructions;
+		
 		machine.memory().setPageTable(nextProcess.pageTable);
 		
 		process = nextProcess;
@@ -162,44 +203,130 @@ public class Kernel implements Runnable{
 	public void interrupt(){
 		Interrupt interrupt = machine.interrupting;
 		
+		// acknowledged first so anything the device reports while this is handled interrupts again
+		interrupt.acknowledge();
+		
 		if(interrupt instanceof Timer){
-			process.ticks++;
+			// nothing is running while the processor is waiting for an interrupt
+			if(process != null){
+				process.ticks++;
+			}
+			
+			// let the page replacer look at which pages have been used
+			if(pageReplacer.tick()){
+				machine.memory().flushTLB();
+			}
 			
-			decrementIOWaiters();
+			cleanPages();
+		}else if(interrupt instanceof HardDrive){
+			// take off everything the drive has finished in one go
+			IOOperation operation;
 			
-			// reset used flags on pages - used by some page replacement algorithms
-//			for(PCB pcb : processes){
-//				if(pcb != null){
-//					for(Page page : pcb.pageTable){
-//						if(page != null){
-//							page.used = false;
-//						}
-//					}
-//				}
-//			}
+			while((operation = machine.hd.completions.poll()) != null){
+				ioCompleted(operation);
+			}
 		}
 		
 		machine.interrupting = null;
-		interrupt.acknowledge();
 	}
 	
 
 
 	/**
-	 * Handle a page fault
+	 * Handle a page fault. When the process is faulting its way through memory a page at a time
+	 * the pages after the one it faulted on are brought in with it.
 	 */
 	public void pageFault(){
 		// find page that needs to be brought into memory
 		int badVaddr = machine.processor().readRegister(Processor.regBadVAddr);
 		int virtualPageNumber = Memory.pageFromAddress(badVaddr);
-
-		Page virtualPage = machine.memory().pages[virtualPageNumber];
+		
+		// outside the address space
+		if(virtualPageNumber >= process.pageTable.size()){
+			exception();
+			return;
+		}
+		
+		Page virtualPage = findPage(virtualPageNumber);
+		
+		if(virtualPageNumber != process.expectedFault){
+			process.expectedFault = virtualPageNumber + 1;
+			
+			bringIn(virtualPage);
+			return;
+		}
+		
+		// sequential - prefetch the rest of the cluster, reading what is in swap in one go, 
+		// at least the faulting page even when memory is too small to prefetch
+		int count = Math.max(1, Math.min(Configuration.pageCluster, Configuration.numPhysPages / 2));
+		
+		Page[] cluster = new Page[count];
+		cluster[0] = virtualPage;
+		
+		for(int i = 1; i < count; i++){
+			int vpn = virtualPageNumber + i;
+			
+			// only prefetch pages that will be loaded with something
+			if(vpn >= process.pageTable.size() || (process.pageTable.get(vpn) == null && !Loader.inSection(process, vpn))){
+				count = i;
+				break;
+			}
+			
+			cluster[i] = findPage(vpn);
+			
+			if(cluster[i].isPresent()){
+				count = i;
+				break;
+			}
+		}
+		
+		readAhead(cluster, count);
+		
+		for(int i = 0; i < count; i++){
+			bringIn(cluster[i]);
+			
+			// don't let the clock take the frames back for the rest of the cluster
+			cluster[i].setUsed(true);
+			
+			// a page of the cluster was evicted to make room so memory is too full to prefetch
+			if(isReplaced(cluster, i + 1)){
+				count = i + 1;
+			}
+		}
+		
+		process.expectedFault = virtualPageNumber + count;
+	}
+	
+	/**
+	 * Find the page table entry for a page of the current process, creating it if the page
+	 * hasn't been touched before
+	 */
+	private Page findPage(int virtualPageNumber){
+		Page virtualPage = process.pageTable.get(virtualPageNumber);
 		
 		// if the page doesn't exist yet we need to bring it into memory
 		if(virtualPage == null){
 			virtualPage = new Page(virtualPageNumber, -1, false, false, false, false);
-			process.pageTable[virtualPageNumber] = virtualPage;
+			process.pageTable.set(virtualPageNumber, virtualPage);
 			virtualPage.pid = process.pid;
+			
+			if(Loader.isReadOnly(process, virtualPageNumber)){
+				shareText(virtualPage);
+			}else if(!Loader.isInitialized(process, virtualPageNumber)){
+				shareZero(virtualPage);
+			}
+		}
+		
+		return virtualPage;
+	}
+	
+	/**
+	 * Bring a page of the current process into memory, replacing another page if necessary
+	 */
+	private void bringIn(Page virtualPage){
+		// no need to load the page if another process has it in memory
+		if(mapShared(virtualPage)){
+			return;
 		}
 		
 		// use the page replacement algorithm to find a physical page number to put the page in and 
@@ -207,10 +334,13 @@ public class Kernel implements Runnable{
 		pageReplacer.replace(virtualPage);
 		Page replacedPage = pageReplacer.getReplacedPage();
 		
+		// the replacer may have cleared used bits that the TLB would otherwise never set again
+		machine.memory().flushTLB();
+		
 //		if(replacedPage != null){
-//			System.out.println("Loading page " + virtualPageNumber + " of process " + process.name + " " + process.pid + " Replacing " + replacedPage.vpn + " from process " + processes[replacedPage.pid].name + " Into "  + pageReplacer.getPhysicalPageNumber());
+//			System.out.println("Loading page " + virtualPage.vpn + " of process " + process.name + " " + process.pid + " Replacing " + replacedPage.vpn + " from process " + processes[replacedPage.pid].name + " Into "  + pageReplacer.getPhysicalPageNumber());
 //		}else{
-//			System.out.println("Loading page " + virtualPageNumber  + " of process " + process.name + " Into " + pageReplacer.getPhysicalPageNumber());
+//			System.out.println("Loading page " + virtualPage.vpn  + " of process " + process.name + " Into " + pageReplacer.getPhysicalPageNumber());
 //		}
 			
 		// If we need to save a page
@@ -222,11 +352,240 @@ public class Kernel implements Runnable{
 		loadPage(virtualPage, physicalPageNumber);
 	}
 	
+	/**
+	 * Whether one of the first <i>count</i> pages of a cluster being prefetched has been 
+	 * evicted again
+	 */
+	private boolean isReplaced(Page[] cluster, int count){
+		for(int i = 0; i < count; i++){
+			if(!cluster[i].isPresent()){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Read the run of pages at the start of a cluster that were written out to consecutive swap 
+	 * slots in one drive operation
+	 */
+	private void readAhead(Page[] cluster, int count){
+		int run = 0;
+		
+		while(run < count && cluster[run].isSaved() && cluster[run].swapSlot != -1 && cluster[run].data == null 
+				&& cluster[run].swapSlot == cluster[0].swapSlot + run){
+			run++;
+		}
+		
+		if(run > 1){
+			swap.readAhead(cluster[0].swapSlot, run);
+		}
+	}
+	
+	/**
+	 * Add a page of a read only program section to the pages shared by every 
+	 * process running the program
+	 */
+	private void shareText(Page page){
+		long key = (long) process.files[process.executable].entry.firstBlock * Configuration.numVirtualPages + page.vpn;
+		
+		List<Page> sharers = textPages.get(key);
+		
+		if(sharers == null){
+			sharers = new ArrayList<Page>();
+			textPages.put(key, sharers);
+		}
+		
+		// the pages all have the same contents so they can share the swap slot too
+		if(!sharers.isEmpty()){
+			page.swapSlot = sharers.get(0).swapSlot;
+			page.setSaved(sharers.get(0).isSaved());
+		}
+		
+		page.text = true;
+		page.textKey = key;
+		page.setReadOnly(true);
+		page.sharers = sharers;
+		sharers.add(page);
+	}
+	
+	/**
+	 * Mark a page that starts out zero filled. While it is in memory it shares the zero 
+	 * filled physical page, it gets its own the first time it is written to.
+	 */
+	private void shareZero(Page page){
+		page.zero = true;
+		page.setReadOnly(true);
+	}
+	
+	/**
+	 * Map a page to the same physical page as another page sharing its contents 
+	 * if there is one in memory
+	 * 
+	 * @return true if the page was mapped
+	 */
+	private boolean mapShared(Page page){
+		// a zero page joins the pages mapped to the zero filled physical page, the first one
+		// in is loaded into a new one
+		if(page.zero){
+			if(zeroPages == null){
+				zeroPages = new ArrayList<Page>();
+			}
+			
+			page.sharers = zeroPages;
+			zeroPages.add(page);
+		}
+		
+		if(page.sharers == null){
+			return false;
+		}
+		
+		for(Page other : page.sharers){
+			if(other != page && other.isPresent()){
+				page.setPpn(other.getPpn());
+				page.setPresent(true);
+				page.setReadOnly(true);
+				page.setUsed(false);
+				page.setDirty(other.isDirty());
+				
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	/** 
-	 * Handle TLB miss - not implemented
+	 * Handle TLB miss - refill the TLB from the current process's page table
 	 */
 	public void tlbMiss(){
+		int badVaddr = machine.processor().readRegister(Processor.regBadVAddr);
 		
+		switch(machine.memory().refillTLB(badVaddr)){
+		case Memory.translated:
+			break;
+		case exceptionPageFault:
+			// the instruction is restarted and will miss again once the page is in memory
+			pageFault();
+			break;
+		case exceptionReadOnly:
+			readOnly();
+			break;
+		default:
+			exception();
+		}
+	}
+	
+	/**
+	 * Handle a write to a read only page. A page still shared with a forked process or
+	 * the zero page gets its own copy, a write to any other read only page is an error 
+	 * in the program.
+	 */
+	public void readOnly(){
+		int badVaddr = machine.processor().readRegister(Processor.regBadVAddr);
+		
+		Page page = machine.memory().pages.get(Memory.pageFromAddress(badVaddr));
+		
+		if(page == null || page.sharers == null || page.text){
+			exception();
+			return;
+		}
+		
+		copyOnWrite(page);
+	}
+	
+	/**
+	 * Give a page shared after a fork or a zero page its own copy of its contents so it can 
+	 * be written to
+	 * 
+	 * @param page a page in the current process that is in memory
+	 */
+	private void copyOnWrite(Page page){
+		// the swap slot stays with the other pages
+		page.swapSlot = -1;
+		page.setSaved(false);
+		
+		boolean zero = page.zero;
+		
+		if(unshare(page) != null){
+			// the other pages still need the frame so move out of it with a copy of its contents,
+			// a zero page is zero filled again when it is loaded
+			if(!zero){
+				page.data = new byte[Configuration.pageSize];
+				readFrame(page.getPpn(), page.data);
+			}
+			
+			page.setPpn(-1);
+			page.setPresent(false);
+			page.setUsed(false);
+			page.setDirty(false);
+		}else{
+			// nothing else has the frame mapped so keep it - it has to be saved to a new slot
+			page.setDirty(true);
+		}
+		
+		machine.memory().flushTLB();
+		
+		if(!page.isPresent()){
+			checkInMemory(Memory.makeAddress(page.vpn, 0));
+		}
+	}
+	
+	/**
+	 * Take a page out of the group of pages it shares its contents with after a fork, 
+	 * making it writable again. The last page left in a group becomes writable too, unless 
+	 * the group is a program's text or the zero pages.
+	 * 
+	 * @param page page to take out of its group
+	 * @return another page mapped to the same physical page, which now owns it,
+	 * 			or null if there isn't one 
+	 */
+	private Page unshare(Page page){
+		List<Page> sharers = page.sharers;
+		
+		sharers.remove(page);
+		
+		page.sharers = null;
+		page.setReadOnly(false);
+		
+		// the last page mapped to the zero filled physical page has kept it
+		if(page.zero && sharers.isEmpty()){
+			zeroPages = null;
+		}
+		
+		page.zero = false;
+		
+		// the last page with the contents gives up their swap slot
+		if(sharers.isEmpty() && page.swapSlot != -1){
+			swap.free(page.swapSlot);
+		}
+		
+		// nothing is running the program any more
+		if(page.text && sharers.isEmpty()){
+			textPages.remove(page.textKey);
+		}
+		
+		Page mapped = null;
+		
+		for(Page other : sharers){
+			if(page.isPresent() && other.isPresent() && other.getPpn() == page.getPpn()){
+				mapped = other;
+			}
+		}
+		
+		if(sharers.size() == 1 && !sharers.get(0).text && !sharers.get(0).zero){
+			Page last = sharers.get(0);
+			
+			last.sharers = null;
+			last.setReadOnly(false);
+		}
+		
+		if(mapped != null){
+			pageReplacer.setPage(page.getPpn(), mapped);
+		}
+		
+		return mapped;
 	}
 	
 	/**
@@ -249,41 +608,31 @@ public class Kernel implements Runnable{
 			break;
 		case syscallExec:
 			handleExec();
-			
-			simulateIOWait();
-			
 			break;
 		case syscallJoin:
 			handleJoin();
 			break;
 		case syscallCreate:
 			handleCreate();
-			
-			simulateIOWait();
 			break;
 		case syscallOpen:
 			handleOpen();
-			
-			simulateIOWait();
 			break;
 		case syscallRead:
 			handleRead();
 			
-			simulateIOWait();
+			waitForIO();
 			break; 
 		case syscallWrite:
 			handleWrite();
 			
-			simulateIOWait();
+			waitForIO();
 			break; 
 		case syscallClose:
 			handleClose();
-			
-			simulateIOWait();
 			break;
 		case syscallUnlink:
 			handleUnlink();
-			simulateIOWait();
 			break;
 		case syscallFork:
 			handleFork();
@@ -313,63 +662,58 @@ public class Kernel implements Runnable{
 		child.ticks = 0;
 		child.userRegisters = Arrays.copyOf(machine.processor().registers, machine.processor().registers.length);
 		child.parent = process.pid;
+		child.weight = process.weight;
+		child.vruntime = process.vruntime;
 		child.joining = -1;
 		child.statusPointer =-1;
 		
 		// copy page table
-		child.pageTable = new Page[Configuration.numVirtualPages];
+		child.pageTable = new PageTable(process.pageTable.size());
 		
 		int child_pid = addProcess(child);
-
-		for (int i = 0; i < process.pageTable.length; i++) {
-			Page oldPage = process.pageTable[i];
-
-			if (oldPage == null) {
-				continue;
-			}
-
-			// copy pages
-			child.pageTable[i] = new Page(oldPage.vpn, -1, false, false, false, false);
-			
-			child.pageTable[i].dirty = oldPage.dirty;
-			child.pageTable[i].used = oldPage.used;
-			child.pageTable[i].pid = child.pid;
-			
-			// copy pages memory to child page - when it is swapped out it will be saved
-			int memoryPointer = Memory.makeAddress(oldPage.vpn, 0);
-			checkInMemory(memoryPointer);
+		
+		process.children.add(child);
+		
+		// pages the parent hasn't touched yet are loaded from the same program file
+		if(process.executable != -1){
+			OpenFile executable = process.files[process.executable];
 			
-			// read from memory
-			byte[] buffer = new byte[Configuration.pageSize];
+			child.files[process.executable] = new OpenFile(executable.name, executable.entry);
+			executable.entry.openCount++;
 			
-			for(int x = 0; x < Configuration.pageSize; x++){
-				try {
-					buffer[x] = (byte)machine.memory().readMem(memoryPointer+x, 1);
-				} catch (MipsException e) {
-					throw new KernelFault("Bad address");
-				}
+			child.executable = process.executable;
+			child.sections = process.sections;
+		}
+
+		// share the parent's pages read only - whichever process writes to a page first gets a copy
+		for (Page oldPage : process.pageTable) {
+			// zero pages don't need a copy, they are only grouped by the physical page they are mapped to
+			if(oldPage.sharers == null && !oldPage.zero){
+				oldPage.sharers = new ArrayList<Page>();
+				oldPage.sharers.add(oldPage);
 			}
 			
-			// write to memory
-			machine.memory().setPageTable(child.pageTable);
+			oldPage.setReadOnly(true);
 			
-			// set process to this so that it creates pages in the right process
-			PCB oldProc = process;
-			process = child;
+			Page page = new Page(oldPage.vpn, oldPage.getPpn(), oldPage.isPresent(), true, oldPage.isUsed(), oldPage.isDirty());
 			
-			checkInMemory(memoryPointer);
+			page.pid = child.pid;
+			page.text = oldPage.text;
+			page.textKey = oldPage.textKey;
+			page.zero = oldPage.zero;
+			page.setSaved(oldPage.isSaved());
+			page.swapSlot = oldPage.swapSlot;
+			page.sharers = oldPage.sharers;
 			
-			for(int x = 0; x < Configuration.pageSize; x++){
-				try {
-					machine.memory().writeMem(memoryPointer+x, 1, buffer[x]);
-				} catch (MipsException e) {
-					throw new KernelFault("Bad address");
-				}
+			if(page.sharers != null){
+				page.sharers.add(page);
 			}
 			
-			process = oldProc;
-			machine.memory().setPageTable(process.pageTable);
+			child.pageTable.set(page.vpn, page);
 		}
+		
+		// the parent's pages are read only now
+		machine.memory().flushTLB();
 			
 		child.userRegisters[Processor.regV0] = 0;
 		
@@ -425,8 +769,9 @@ public class Kernel implements Runnable{
 		PCB new_process = new PCB();
 		
 		new_process.name = name;
+		new_process.weight = programWeight(name);
 		
-		new_process.pageTable = new Page[Configuration.numVirtualPages];
+		new_process.pageTable = new PageTable();
 		
 		addProcess(new_process);
 		
@@ -434,6 +779,8 @@ public class Kernel implements Runnable{
 			new_process.parent = -1;
 		}else{
 			new_process.parent = process.pid;
+			
+			process.children.add(new_process);
 		}
 		
 
@@ -482,8 +829,7 @@ public class Kernel implements Runnable{
 				machine.memory().setPageTable(process.pageTable);
 			}
 			
-			// close file
-			fs.close(fid, new_process);
+			// the file is left open for loading pages, it is closed when the process exits
 		} catch (CoffLoadException e) {
 			throw new KernelFault("Tried to execute file that isn't a coff file");
 		} catch (MipsException e) {
@@ -493,6 +839,21 @@ public class Kernel implements Runnable{
 		machine.processor().writeRegister(Processor.regV0, new_process.pid);
 	}
 
+	/**
+	 * The fair share scheduler weight for a program, from <tt>Configuration.programWeights</tt>
+	 */
+	private int programWeight(String name){
+		for(String entry : Configuration.programWeights.split(",")){
+			String[] parts = entry.trim().split("=");
+			
+			if(parts.length == 2 && parts[0].equals(name)){
+				return Math.max(1, Integer.parseInt(parts[1].trim()));
+			}
+		}
+		
+		return Configuration.defaultWeight;
+	}
+	
 	private void handleClose() {
 		int rval;
 		int fid = machine.processor().readRegister(Processor.regA0);
@@ -513,20 +874,14 @@ public class Kernel implements Runnable{
 		case 1:
 			// handle standard out
 			
-			// make sure processes buffer is in memory
-			checkInMemory(startPointer);
-			
-			// read char from stdin
 			read = -1;
 			
 			try {
-				for(int i = 0; i < length; i++){
-					int t = machine.memory().readMem(startPointer+i, 1);
+				byte[] buffer = new byte[Math.max(length, 0)];
 				
-					//System.out.println(t);
+				copyIn(process, startPointer, buffer, 0, buffer.length);
 				
-					System.out.write((byte)t);
-				}
+				System.out.write(buffer, 0, buffer.length);
 				
 				read = length;
 			} catch (MipsException e) {
@@ -534,7 +889,7 @@ public class Kernel implements Runnable{
 			}
 			break;
 		default:
-			read = fs.write(fid, length, startPointer, this, process);
+			read = fs.startWrite(fid, length, startPointer, this, process);
 		}
 		
 		machine.processor().writeRegister(Processor.regV0, read);
@@ -552,16 +907,13 @@ public class Kernel implements Runnable{
 		case 0:
 			// handle standard in
 			
-			// make sure processes buffer is in memory
-			checkInMemory(bufferPointer);
-			
 			// read char from stdin
 			read = 1;
 			
 			try {
 				int t = System.in.read();
 				
-				machine.memory().writeMem(bufferPointer, 1, t);
+				copyOut(process, bufferPointer, new byte[]{(byte)t}, 0, 1);
 				
 			} catch (IOException e) {
 				throw new KernelFault("Unable to read from standard in");
@@ -569,7 +921,7 @@ public class Kernel implements Runnable{
 				throw new KernelFault("Bad address");
 			}
 		default:
-			read = fs.read(fid, length, bufferPointer, this, process);
+			read = fs.startRead(fid, length, bufferPointer, this, process);
 		}
 
 		machine.processor().writeRegister(Processor.regV0, read);
@@ -584,18 +936,18 @@ public class Kernel implements Runnable{
 			// handle joining processes
 			
 			// set return value on joining processes
-			for(int i = 0; i < Configuration.maxProcesses; i++){
-				if(processes[i] != null && processes[i].joining == process.pid){
-					PCB joining = processes[i];
-					
-					joining.state = PCB.ready;
-					
-					joining.joining = -1;
-					joining.statusPointer = 0;
-					
-					joining.userRegisters[Processor.regV0] = 0;
-				}
+			for(PCB joining : process.joiners){
+				makeReady(joining);
+				
+				joining.joining = -1;
+				joining.statusPointer = 0;
+				
+				joining.userRegisters[Processor.regV0] = 0;
 			}
+			
+			process.joiners.clear();
+			
+			orphan(process);
 		}
 	}
 
@@ -622,26 +974,30 @@ public class Kernel implements Runnable{
 	}
 	
 	private String getStringFromMemoryPointer(int namePointer){
-		
-		checkInMemory(namePointer);
-		
-		int i = 0;
-		
-		byte b;
-		
 		StringBuilder sb = new StringBuilder();
 		
+		byte[] buffer = new byte[Configuration.pageSize];
+		
 		try {
-			while((b = (byte)machine.memory().readMem(namePointer+i, 1)) != 0){
-				sb.append((char)b);
+			// copy up to the end of each page until the terminating 0 turns up
+			while(true){
+				int amount = Configuration.pageSize - Memory.offsetFromAddress(namePointer);
+				
+				copyIn(process, namePointer, buffer, 0, amount);
+				
+				for(int i = 0; i < amount; i++){
+					if(buffer[i] == 0){
+						return sb.toString();
+					}
+					
+					sb.append((char)buffer[i]);
+				}
 				
-				i++;
+				namePointer += amount;
 			}
 		} catch (MipsException e) {
 			throw new KernelFault("bad address");
 		}
-		
-		return sb.toString();
 	}
 	
 	
@@ -660,9 +1016,9 @@ public class Kernel implements Runnable{
 		// check if page containing pointer is in memory
 		int vpn = Memory.pageFromAddress(namePointer);
 		
-		Page page = machine.memory().pages[vpn];
+		Page page = machine.memory().pages.get(vpn);
 		
-		if(page == null || !page.present){
+		if(page == null || !page.isPresent()){
 			//System.out.println("Faulting on check");
 			machine.processor().writeRegister(Processor.regBadVAddr, namePointer);
 			pageFault();
@@ -670,6 +1026,98 @@ public class Kernel implements Runnable{
 		return page;
 	}
 	
+	/**
+	 * Copy <i>length</i> bytes of a process's memory starting at <i>vaddr</i> into 
+	 * <i>data</i>. Each page is checked into memory before it is copied so the copy
+	 * can be larger than physical memory.
+	 * 
+	 * @param pcb process whose memory to copy from
+	 * @param vaddr virtual address to start copying from
+	 * @param data array to copy into
+	 * @param offset where in data to start copying to
+	 * @param length number of bytes to copy
+	 * @throws MipsException if part of the range isn't a valid address
+	 */
+	public void copyIn(PCB pcb, int vaddr, byte[] data, int offset, int length) throws MipsException {
+		PCB oldProcess = switchMemory(pcb);
+		
+		try {
+			while(length > 0){
+				int amount = Math.min(length, Configuration.pageSize - Memory.offsetFromAddress(vaddr));
+				
+				checkInMemory(vaddr);
+				
+				machine.memory().readBlock(vaddr, data, offset, amount);
+				
+				vaddr += amount;
+				offset += amount;
+				length -= amount;
+			}
+		} finally {
+			switchMemory(oldProcess);
+		}
+	}
+	
+	/**
+	 * Copy <i>length</i> bytes from <i>data</i> into a process's memory starting at 
+	 * <i>vaddr</i>. Each page is checked into memory before it is copied so the copy
+	 * can be larger than physical memory.
+	 * 
+	 * @param pcb process whose memory to copy to
+	 * @param vaddr virtual address to start copying to
+	 * @param data array to copy from
+	 * @param offset where in data to start copying from
+	 * @param length number of bytes to copy
+	 * @throws MipsException if part of the range isn't a valid address
+	 */
+	public void copyOut(PCB pcb, int vaddr, byte[] data, int offset, int length) throws MipsException {
+		PCB oldProcess = switchMemory(pcb);
+		
+		try {
+			while(length > 0){
+				int amount = Math.min(length, Configuration.pageSize - Memory.offsetFromAddress(vaddr));
+				
+				checkInMemory(vaddr);
+				
+				// the kernel writing to a page shared after a fork has to copy it like the process would
+				if(machine.memory().vmEnabled){
+					Page page = machine.memory().pages.get(Memory.pageFromAddress(vaddr));
+					
+					if(page != null && page.sharers != null && !page.text){
+						copyOnWrite(page);
+					}
+				}
+				
+				machine.memory().writeBlock(vaddr, data, offset, amount);
+				
+				vaddr += amount;
+				offset += amount;
+				length -= amount;
+			}
+		} finally {
+			switchMemory(oldProcess);
+		}
+	}
+	
+	/**
+	 * Make a process current so that memory accesses and page faults go to its page table
+	 * 
+	 * @return the process that was current before
+	 */
+	private PCB switchMemory(PCB pcb){
+		PCB oldProcess = process;
+		
+		if(pcb != process){
+			process = pcb;
+			
+			if(pcb != null){
+				machine.memory().setPageTable(pcb.pageTable);
+			}
+		}
+		
+		return oldProcess;
+	}
+	
 	private void handleJoin() {
 		int childPid = machine.processor().readRegister(Processor.regA0);
 		int statusPointer = machine.processor().readRegister(Processor.regA1);
@@ -681,7 +1129,9 @@ public class Kernel implements Runnable{
 			return;
 		}
 		
-		process.state = PCB.waiting;
+		makeWaiting(process);
+		
+		child.joiners.add(process);
 		
 		process.joining = child.pid;
 		process.statusPointer = statusPointer;
@@ -707,12 +1157,9 @@ public class Kernel implements Runnable{
 		
 		// create first process
 		handleExec(Configuration.shellProgramName, Configuration.processArgs);
-		
-		// create idle process
-		handleExec("idle.coff", new String[]{});
 	
 		// start timer to generate context switching interrupts
-		new Thread(machine.timer, "Timer Thread").start();
+		machine.startTimer();
 	}
 
 	private void handleExit() {
@@ -735,51 +1182,47 @@ public class Kernel implements Runnable{
 		}
 		
 		// set return value on joining processes
-		for(int i = 0; i < Configuration.maxProcesses; i++){
-			if(processes[i] != null && processes[i].joining == process.pid){
-				PCB joining = processes[i];
-				
-				joining.state = PCB.ready;
-				
-				// write return result of process to the joining processes status pointer
-				
-				// set the current process to joining so memory works correctly
-				PCB oldProcess = process;
-				process = joining;
-				
-				machine.memory().setPageTable(joining.pageTable);
-				
-				checkInMemory(joining.statusPointer);
-				
+		for(PCB joining : process.joiners){
+			makeReady(joining);
+			
+			// write return result of process to the joining processes status pointer, 
+			// unless it is null
+			if(joining.statusPointer != 0){
 				byte[] statusBytes = Lib.bytesFromInt(status);
-				for(int j = 0; j < statusBytes.length; j++){
-					try {
-						machine.memory().writeMem(joining.statusPointer+j, 1, statusBytes[j]);
-					} catch (MipsException e) {
-						throw new KernelFault("unable to write to memory");
-					}
-				}
-	
-				process = oldProcess;
-				machine.memory().setPageTable(oldProcess.pageTable);
-				
-				joining.joining = -1;
-				joining.statusPointer = 0;
 				
-				joining.userRegisters[Processor.regV0] = 1;
+				try {
+					copyOut(joining, joining.statusPointer, statusBytes, 0, statusBytes.length);
+				} catch (MipsException e) {
+					// the pointer isn't somewhere the joining process can write to - that's 
+					// its mistake, it just doesn't get the status
+				}
 			}
+			
+			joining.joining = -1;
+			joining.statusPointer = 0;
+			
+			joining.userRegisters[Processor.regV0] = 1;
 		}
 		
-		// set parents to 0;
-		for(int i = 0; i < Configuration.maxProcesses; i++){
-			if(processes[i] != null && processes[i].parent == process.pid){
-				processes[i].parent = -1;
+		process.joiners.clear();
+		
+		orphan(process);
+		
+		// leave physical pages still shared with other processes to them and free swap slots
+		for(Page page : process.pageTable){
+			if(page == null){
+				continue;
+			}
+			
+			if(page.sharers != null){
+				if(unshare(page) != null){
+					page.setPresent(false);
+				}
+			}else if(page.swapSlot != -1){
+				swap.free(page.swapSlot);
 			}
 		}
 		
-		// remove page file from disk
-		fs.unlink(process.pid + "_" + process.name);
-		
 		// remove pages
 		pageReplacer.removeProcess(process);
 
@@ -789,8 +1232,26 @@ public class Kernel implements Runnable{
 		process = null;
 	}
 	
+	/**
+	 * Take a process that is going away out of its parent's children and leave its own 
+	 * children without a parent
+	 */
+	private void orphan(PCB pcb){
+		PCB parent = pcb.parent == -1 ? null : processes[pcb.parent];
+		
+		if(parent != null){
+			parent.children.remove(pcb);
+		}
+		
+		for(PCB child : pcb.children){
+			child.parent = -1;
+		}
+		
+		pcb.children.clear();
+	}
+	
 	public int addProcess(PCB pcb){
-		for(int i = 0; i < Configuration.maxFiles;i++){
+		for(int i = 0; i < Configuration.maxProcesses;i++){
 			if(processes[i] == null){
 				pcb.pid = i;
 				processes[i] = pcb;
@@ -803,27 +1264,106 @@ public class Kernel implements Runnable{
 		throw new KernelFault("Too many processes open");
 	}
 	
-	// list of processes we are simulating IO waiting on
-	private List<PCB> ioWaiters = new ArrayList<PCB>();
+	/**
+	 * Send an operation to the drive on behalf of a process without waiting for it. The 
+	 * drive works through operations in order, so when the last one submitted for the 
+	 * process completes so have all the others.
+	 */
+	public void submitIO(PCB pcb, IOOperation operation){
+		operation.process = pcb;
+		pcb.currentIO = operation;
+		
+		machine.hd.operations.add(operation);
+	}
 	
-	public void simulateIOWait(){
-		process.state = PCB.waiting;
-		// wait for one quantum
-		process.waitTicks = Configuration.quantum;
+	/**
+	 * The drive has completed an operation a process was waiting for. It is finished off 
+	 * before the next process is scheduled rather than in the middle of whatever the 
+	 * kernel is doing.
+	 */
+	public void ioCompleted(IOOperation operation){
+		if(operation == null){
+			return;
+		}
 		
-		ioWaiters.add(process);
+		if(operation.process != null){
+			completedIO.add(operation);
+		}else if(operation.rval < 0){
+			// nothing waits for the page cleaner's writes so this is where they fail
+			throw new KernelFault("Unable to write to swap");
+		}
 	}
 	
-	// used by the IO wait simulation
-	private void decrementIOWaiters() {
-		for(PCB pcb : ioWaiters){
+	/**
+	 * Make the current process wait if the syscall it made started IO
+	 */
+	private void waitForIO(){
+		if(process.currentIO != null){
+			makeWaiting(process);
+		}
+	}
+	
+	/**
+	 * Copy the data read by completed drive operations into memory and let processes 
+	 * whose last operation has completed run again
+	 */
+	private void finishIO(){
+		for(int i = 0; i < completedIO.size(); i++){
+			IOOperation operation = completedIO.get(i);
+			PCB pcb = operation.process;
 			
-			if(pcb.waitTicks == 0){
-				pcb.state = PCB.ready;
-			}else{
-				pcb.waitTicks--;
+			boolean failed = operation.rval < 0;
+			
+			if(!failed && operation.action == HardDrive.read){
+				try {
+					copyOut(pcb, operation.pointer, operation.rdata, 0, operation.rdata.length);
+				} catch (MipsException e) {
+					failed = true;
+				}
+			}
+			
+			if(failed){
+				setResult(pcb, -1);
+			}
+			
+			if(operation == pcb.currentIO){
+				pcb.currentIO = null;
+				
+				makeReady(pcb);
 			}
 		}
+		
+		completedIO.clear();
+	}
+	
+	/**
+	 * Set the value a syscall returns to a process, which is still in the processor's 
+	 * registers if it is the current process
+	 */
+	private void setResult(PCB pcb, int value){
+		if(pcb == process){
+			machine.processor().writeRegister(Processor.regV0, value);
+		}else{
+			pcb.userRegisters[Processor.regV0] = value;
+		}
+	}
+	
+	/**
+	 * Let a process run again, telling the scheduler
+	 */
+	private void makeReady(PCB pcb){
+		pcb.state = PCB.ready;
+		
+		scheduler.ready(pcb);
+	}
+	
+	/**
+	 * Stop a process running until it is made ready again, telling the scheduler
+	 */
+	private void makeWaiting(PCB pcb){
+		pcb.state = PCB.waiting;
+		
+		scheduler.waiting(pcb);
 	}
 	
 	/**
@@ -833,69 +1373,263 @@ public class Kernel implements Runnable{
 	 */
 	void savePage(Page page){	
 		if(page != null){
-			if(page.dirty || !page.saved){
-				PCB proc = processes[page.pid];
+			// clean pages can be loaded again from wherever they came from
+			if(page.isDirty()){
+				writeCluster(page, true);
+			}
 			
-				machine.memory().setPageTable(proc.pageTable);
-				
-				for (int j = 0; j < Configuration.pageSize; j++) {
-					int t = Memory.makeAddress(page.vpn, j);
-					try {
-						page.data[j] = (byte) machine.memory().readMem(t, 1);
-					} catch (MipsException e) {
-						throw new KernelFault("bad memory address");
+			// pages shared after a fork have the same contents so share the slot and go out with this one
+			if(page.sharers != null){
+				for(Page other : page.sharers){
+					other.swapSlot = page.swapSlot;
+					other.setSaved(page.isSaved());
+					
+					if(other != page && other.isPresent() && other.getPpn() == page.getPpn()){
+						other.setPpn(-1);
+						other.setPresent(false);
+						other.setUsed(false);
+						other.setDirty(false);
 					}
 				}
 				
-				machine.memory().setPageTable(process.pageTable);
-			
-				page.saved = true;
+				// the zero filled physical page has gone
+				if(page.zero){
+					for(Page other : page.sharers){
+						other.sharers = null;
+					}
+					
+					zeroPages = null;
+				}
 			}
 			
-			page.ppn = -1;
-			page.present = false;
-			page.readOnly = false;
-			page.used = false;
-			page.dirty = false;
+			page.setPpn(-1);
+			page.setPresent(false);
+			page.setReadOnly(page.sharers != null || page.text || page.zero);
+			page.setUsed(false);
+			page.setDirty(false);
 		}
 		
 		machine.memory().setPageTable(process.pageTable);
 	}
 	
+	/**
+	 * Write a dirty page to swap along with the dirty pages either side of it in the same 
+	 * process, in one drive operation. The other pages stay in memory but are clean afterwards
+	 * so they don't have to be written when they are replaced.
+	 * 
+	 * @param wait whether to wait for the drive, otherwise the pages count as saved as soon as 
+	 * 			the write is started
+	 */
+	private void writeCluster(Page page, boolean wait){
+		PCB pcb = processes[page.pid];
+		
+		int first = page.vpn;
+		int last = page.vpn;
+		
+		// a page shared after a fork shares its slot so it can't be moved next to others
+		if(pcb != null && page.sharers == null){
+			while(last - first + 1 < Configuration.pageCluster && isClusterable(pcb, last + 1)){
+				last++;
+			}
+			
+			while(last - first + 1 < Configuration.pageCluster && isClusterable(pcb, first - 1)){
+				first--;
+			}
+		}
+		
+		int count = last - first + 1;
+		
+		Page[] cluster = new Page[count];
+		
+		if(count == 1){
+			cluster[0] = page;
+		}else{
+			for(int i = 0; i < count; i++){
+				cluster[i] = pcb.pageTable.get(first + i);
+			}
+		}
+		
+		// the slots couldn't be put together so just write the page
+		if(!allocateSlots(cluster)){
+			cluster = new Page[]{page};
+			count = 1;
+			
+			if(page.swapSlot == -1){
+				page.swapSlot = swap.allocate();
+			}
+		}
+		
+		byte[] data = count == 1 && wait ? pageBuffer : new byte[count * Configuration.pageSize];
+		
+		for(int i = 0; i < count; i++){
+			readFrame(cluster[i].getPpn(), data, i * Configuration.pageSize);
+			
+			cluster[i].setSaved(true);
+			cluster[i].setDirty(false);
+		}
+		
+		if(wait){
+			swap.write(cluster[0].swapSlot, data, count);
+		}else{
+			swap.startWrite(cluster[0].swapSlot, data, count);
+		}
+		
+		// pages shared after a fork have the same contents so they share the slot, and any mapped
+		// to the same physical page are clean now too
+		if(page.sharers != null){
+			for(Page other : page.sharers){
+				other.swapSlot = page.swapSlot;
+				other.setSaved(true);
+				
+				if(other.isPresent() && other.getPpn() == page.getPpn()){
+					other.setDirty(false);
+				}
+			}
+		}
+		
+		// the TLB could still let writes to the pages that are now clean through
+		machine.memory().flushTLB();
+	}
+	
+	/**
+	 * The page cleaner, run on every timer tick. Writes out dirty pages among the next 
+	 * <tt>Configuration.cleanFrames</tt> the page replacer will replace, so that page faults 
+	 * only have to load the page they need. The timer interrupt doesn't wait for the write, 
+	 * a page written to again before the drive gets to it is just dirty again.
+	 */
+	private void cleanPages(){
+		// one write a tick so the drive isn't kept from the processes' own reads for long
+		Page page = pageReplacer.pageToClean();
+		
+		if(page != null){
+			writeCluster(page, false);
+		}
+	}
+	
+	/**
+	 * Whether a page can be written out along with a neighbouring page that is being replaced 
+	 */
+	private boolean isClusterable(PCB pcb, int vpn){
+		Page page = pcb.pageTable.get(vpn);
+		
+		// pages still in use will only be written to again
+		return page != null && page.isPresent() && page.isDirty() && !page.isUsed() && page.sharers == null;
+	}
+	
+	/**
+	 * Give a run of pages consecutive swap slots, keeping the ones they have if they are 
+	 * already in order.
+	 * 
+	 * @return false if there wasn't a long enough run of slots free
+	 */
+	private boolean allocateSlots(Page[] cluster){
+		int first = cluster[0].swapSlot;
+		
+		boolean ordered = first != -1;
+		
+		for(int i = 1; i < cluster.length && ordered; i++){
+			ordered = cluster[i].swapSlot == first + i;
+		}
+		
+		if(ordered){
+			return true;
+		}
+		
+		first = swap.allocate(cluster.length);
+		
+		if(first == -1){
+			return false;
+		}
+		
+		for(int i = 0; i < cluster.length; i++){
+			if(cluster[i].swapSlot != -1){
+				swap.free(cluster[i].swapSlot);
+			}
+			
+			cluster[i].swapSlot = first + i;
+		}
+		
+		return true;
+	}
+	
 	/**
 	 * Load a page from memory to the given physical page number
 	 * @param virtualPage
 	 */
 	void loadPage(Page virtualPage, int physicalPageNumber) {
 		// set details in page table entry
-		virtualPage.ppn = physicalPageNumber;
-		virtualPage.present = true;
-		virtualPage.readOnly = false;
-		virtualPage.used = false;
-		virtualPage.dirty = false;
+		machine.memory().flushTLB();
 		
-		if(virtualPage.saved){
-			// write directly to memory
-			machine.memory().vmEnabled = false;
+		virtualPage.setPpn(physicalPageNumber);
+		virtualPage.setPresent(true);
+		virtualPage.setReadOnly(virtualPage.sharers != null || virtualPage.text);
+		virtualPage.setUsed(false);
+		virtualPage.setDirty(false);
+		
+		// whether the page's contents aren't saved anywhere
+		boolean dirty = false;
+		
+		if(virtualPage.data != null){
+			// its own copy of a page that was shared
+			writeFrame(virtualPage.getPpn(), virtualPage.data);
 			
-			int address = virtualPage.ppn * Configuration.pageSize;
+			virtualPage.data = null;
+			dirty = true;
+		}else if(virtualPage.isSaved() && virtualPage.swapSlot != -1){
+			swap.read(virtualPage.swapSlot, pageBuffer);
 			
-			for(int i = 0; i < Configuration.pageSize; i++){
-				try {
-					machine.memory().writeMem(address + i, 1, virtualPage.data[i]);
-				} catch (MipsException e) {
-					throw new KernelFault("bad memory address");
-				}
-			}
-			machine.memory().vmEnabled = true;
+			writeFrame(virtualPage.getPpn(), pageBuffer);
+		}else if(Loader.isInitialized(processes[virtualPage.pid], virtualPage.vpn)){
+			// first time the page has been touched - read it from the program file
+			Loader.loadPage(processes[virtualPage.pid], virtualPage.vpn, pageBuffer, fs);
 			
+			writeFrame(virtualPage.getPpn(), pageBuffer);
 		}else{
-			// do nothing - could be a new blank page -
-			// isn't on disk/memory - has to be saved first
+			// a new stack or uninitialized data page
+			machine.memory().zeroFrame(virtualPage.getPpn());
 		}
 		
 		// set false because when we are writing to memory 
 		// this will be set dirty when the page actually isn't
-		virtualPage.dirty = false;
+		virtualPage.setDirty(dirty);
+	}
+
+	/**
+	 * Copy the contents of a physical page into data
+	 */
+	private void readFrame(int ppn, byte[] data){
+		readFrame(ppn, data, 0);
+	}
+	
+	/**
+	 * Copy the contents of a physical page into data starting at offset
+	 */
+	private void readFrame(int ppn, byte[] data, int offset){
+		// read directly from memory
+		machine.memory().vmEnabled = false;
+		
+		try {
+			machine.memory().readBlock(ppn * Configuration.pageSize, data, offset, Configuration.pageSize);
+		} catch (MipsException e) {
+			throw new KernelFault("bad memory address");
+		}
+		
+		machine.memory().vmEnabled = true;
+	}
+	
+	/**
+	 * Copy data into a physical page
+	 */
+	private void writeFrame(int ppn, byte[] data){
+		// write directly to memory
+		machine.memory().vmEnabled = false;
+		
+		try {
+			machine.memory().writeBlock(ppn * Configuration.pageSize, data, 0, Configuration.pageSize);
+		} catch (MipsException e) {
+			throw new KernelFault("bad memory address");
+		}
+		
+		machine.memory().vmEnabled = true;
 	}
 }
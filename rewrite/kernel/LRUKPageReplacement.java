@@ -0,0 +1,148 @@
+package kernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import machine.Configuration;
+import machine.Page;
+
+/**
+ * LRU-K page replacement. Replaces the page whose K-th most recent use is
+ * furthest in the past, so pages only touched once by a scan go before pages
+ * that are used over and over. Uses are seen a timer tick at a time through
+ * the used bits. The pages used most recently are in their correlated 
+ * reference period and aren't replaced unless every page is. The history of 
+ * replaced pages is kept for a while in case they are loaded again.
+ *
+ * @author pauljohnson
+ *
+ */
+public class LRUKPageReplacement extends AbstractPageReplacement {
+	
+	// pages used in the last two loads or ticks can't be replaced - an instruction 
+	// can need its own page and the page it accesses in memory together
+	private static final int correlatedPeriod = 2;
+	
+	// advances on every tick and every page loaded
+	private long time;
+	
+	// time of the last tick
+	private long lastTick;
+	
+	// times of the last K uses of the page in each frame, most recent first, -1 if there weren't K
+	private long[][] history = new long[frames.size()][];
+	
+	// histories of pages that have been replaced
+	private Map<Page, long[]> retained = new LinkedHashMap<Page, long[]>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Page, long[]> eldest) {
+			return size() > frames.size();
+		}
+	};
+	
+	@Override
+	public boolean tick() {
+		super.tick();
+		
+		boolean cleared = sample();
+		
+		lastTick = ++time;
+		
+		return cleared;
+	}
+	
+	@Override
+	protected void referenced(int ppn) {
+		long[] uses = history[ppn];
+		
+		// uses between the same two ticks, including being loaded, count as one
+		if(uses[0] <= lastTick){
+			System.arraycopy(uses, 0, uses, 1, uses.length - 1);
+		}
+		
+		uses[0] = time;
+	}
+	
+	@Override
+	protected void loaded(int ppn, Page page) {
+		time++;
+		
+		history[ppn] = retained.remove(page);
+		
+		if(history[ppn] == null){
+			history[ppn] = new long[Configuration.lruK];
+			Arrays.fill(history[ppn], -1);
+		}
+		
+		referenced(ppn);
+	}
+	
+	/**
+	 * Pages go furthest K-th use back first
+	 */
+	@Override
+	public Page pageToClean() {
+		List<Integer> order = new ArrayList<Integer>();
+		
+		for(int ppn = 0; ppn < frames.size(); ppn++){
+			if(frames.get(ppn) != null){
+				order.add(ppn);
+			}
+		}
+		
+		final int k = Configuration.lruK - 1;
+		
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if(history[a][k] != history[b][k]){
+					return Long.compare(history[a][k], history[b][k]);
+				}
+				
+				return Long.compare(history[a][0], history[b][0]);
+			}
+		});
+		
+		return firstDirty(order);
+	}
+	
+	@Override
+	protected int selectVictim(Page pageToLoad) {
+		sample();
+		
+		int k = Configuration.lruK - 1;
+		int victim = -1;
+		int lru = 0;
+		
+		for(int ppn = 0; ppn < frames.size(); ppn++){
+			long[] uses = history[ppn];
+			
+			if(uses[0] < history[lru][0]){
+				lru = ppn;
+			}
+			
+			if(uses[0] > time - correlatedPeriod){
+				continue;
+			}
+			
+			// furthest K-th use back, then least recently used
+			if(victim == -1 || uses[k] < history[victim][k] || (uses[k] == history[victim][k] && uses[0] < history[victim][0])){
+				victim = ppn;
+			}
+		}
+		
+		// every page has just been used
+		if(victim == -1){
+			victim = lru;
+		}
+		
+		retained.put(frames.get(victim), history[victim]);
+		
+		return victim;
+	}
+
+}
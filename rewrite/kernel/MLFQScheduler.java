@@ -0,0 +1,129 @@
+package kernel;
+
+import machine.Configuration;
+
+/**
+ * Multi-level feedback queue scheduler. Processes run round robin within a
+ * level and a level only runs when the ones above it are empty. A process that
+ * uses its whole quantum goes down a level, where the quantum is twice as long,
+ * so programs doing a lot of computing end up at the bottom running for longer
+ * stretches. A process that has to wait before its quantum is up goes up a
+ * level, so interactive programs get the processor soon after their input
+ * arrives, and as soon as they are ready they take it from a process lower
+ * down. Every so often every process is moved back to the top so the ones at
+ * the bottom aren't starved.
+ *
+ * @author pauljohnson
+ *
+ */
+public class MLFQScheduler implements Scheduler {
+	
+	// ready processes at each level, the top level first
+	private ReadyQueue[] levels = new ReadyQueue[Configuration.mlfqLevels];
+	
+	private PCB[] processes = new PCB[Configuration.maxProcesses];
+	
+	// ticks processes have run for since the last boost
+	private int sinceBoost = 0;
+	
+	public MLFQScheduler() {
+		for(int i = 0; i < levels.length; i++){
+			levels[i] = new ReadyQueue();
+		}
+	}
+	
+	@Override
+	public PCB schedule(PCB currentProcess) {
+		if(currentProcess != null){
+			sinceBoost += currentProcess.ticks;
+		}
+		
+		if(sinceBoost >= Configuration.boostInterval){
+			boost();
+		}
+		
+		for(ReadyQueue level : levels){
+			if(!level.isEmpty()){
+				return level.poll();
+			}
+		}
+		
+		return null;
+	}
+	
+	@Override
+	public void addProcess(PCB pcb) {
+		processes[pcb.pid] = pcb;
+		
+		setPriority(pcb, 0);
+		
+		if(pcb.state == PCB.ready){
+			levels[pcb.priority].add(pcb);
+		}
+	}
+	
+	@Override
+	public void removeProcess(PCB pcb) {
+		processes[pcb.pid] = null;
+		
+		levels[pcb.priority].remove(pcb);
+	}
+	
+	@Override
+	public void ready(PCB pcb) {
+		// used up its quantum
+		if(pcb.ticks >= pcb.quantum && pcb.priority < levels.length - 1){
+			setPriority(pcb, pcb.priority + 1);
+		}
+		
+		levels[pcb.priority].add(pcb);
+	}
+	
+	@Override
+	public void waiting(PCB pcb) {
+		levels[pcb.priority].remove(pcb);
+		
+		// gave up the processor early
+		if(pcb.ticks < pcb.quantum && pcb.priority > 0){
+			setPriority(pcb, pcb.priority - 1);
+		}
+	}
+	
+	@Override
+	public boolean preempt(PCB currentProcess) {
+		for(int i = 0; i < currentProcess.priority; i++){
+			if(!levels[i].isEmpty()){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Move every process to the top level
+	 */
+	private void boost() {
+		sinceBoost = 0;
+		
+		for(PCB pcb : processes){
+			if(pcb != null && pcb.priority != 0){
+				boolean queued = pcb.readyQueue != null;
+				
+				levels[pcb.priority].remove(pcb);
+				
+				setPriority(pcb, 0);
+				
+				if(queued){
+					levels[0].add(pcb);
+				}
+			}
+		}
+	}
+	
+	private void setPriority(PCB pcb, int priority) {
+		pcb.priority = priority;
+		pcb.quantum = Configuration.quantum << priority;
+	}
+
+}
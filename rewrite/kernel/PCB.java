@@ -1,9 +1,15 @@
 package kernel;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import coff.SectionDetail;
 import hardware.IOOperation;
 import machine.Configuration;
 import machine.Machine;
-import machine.Page;
+import machine.PageTable;
 import emulator.Processor;
 import filesystem.FileTableEntry;
 import filesystem.OpenFile;
@@ -19,10 +25,11 @@ public class PCB {
 	public static final int waiting = 1;
 	public static final int running = 2;
 	
-	public Page[] pageTable;
+	public PageTable pageTable;
 	
 	public int userRegisters[] = new int[Processor.numUserRegisters];
 	
+	// the last drive operation the process is waiting for, null if it isn't waiting for the drive
 	public IOOperation currentIO;
 	
 	public int state = ready;
@@ -40,14 +47,32 @@ public class PCB {
 	// pointer where to put status of exited child process
 	public int statusPointer = 0;
 	
+	// processes joining this one, woken when it exits
+	public List<PCB> joiners = new ArrayList<PCB>();
+	
+	// children that are still running, left without a parent when this process exits
+	public Set<PCB> children = new LinkedHashSet<PCB>();
+	
 	// number of ticks this process has been on the processor
 	public int ticks;
 	
 	// this might be changed by the scheduler
 	public int quantum = Configuration.quantum;
 	
-	// counter for how long this process should simulate IO waiting
-	public int waitTicks;
+	// priority the scheduler has given the process, 0 is the highest
+	public int priority = 0;
+	
+	// number of instructions the process has run, added up when it comes off the processor
+	public long instructions;
+	
+	// share of the processor the process gets under the fair share scheduler, set when it's executed
+	public int weight = Configuration.defaultWeight;
+	
+	// instructions run scaled down by the weight, the fair share scheduler runs the lowest first
+	public long vruntime;
+	
+	// instructions the fair share scheduler has already added to vruntime
+	long charged;
 	
 	// The files this process has open - the index into this array is the file id -
 	// usually called fid
@@ -55,5 +80,18 @@ public class PCB {
 	
 	// Current Working Directory of process
 	public int cwdBlock = 0;
+	
+	// fid of the program file, kept open so pages can be read from it when they are first touched
+	public int executable = -1;
+	
+	// sections of the program file and the pages they are loaded into
+	public SectionDetail[] sections;
+	
+	// page the process will fault on next if it is working through memory sequentially
+	public int expectedFault = -1;
+	
+	// the ready queue the process is in and its neighbours there, null if it isn't in one
+	ReadyQueue readyQueue;
+	PCB prevReady, nextReady;
 
 }
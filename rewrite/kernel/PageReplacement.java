@@ -15,8 +15,28 @@ public interface PageReplacement {
 	
 	public int getPhysicalPageNumber();
 	
+	/**
+	 * Hand a physical page over to a different virtual page mapped to it
+	 */
+	public void setPage(int ppn, Page page);
+	
 	public void addProcess(PCB pcb);
 	
 	public void removeProcess(PCB pcb);
+	
+	/**
+	 * Called on every timer tick so that algorithms can look at which pages have been used
+	 * 
+	 * @return true if any used bits were cleared, the TLB has to be flushed for them to be set again
+	 */
+	public boolean tick();
+	
+	/**
+	 * Find a dirty page among the next few the algorithm will replace, for the page cleaner to 
+	 * write out ahead of time
+	 * 
+	 * @return the page or null if they are all clean
+	 */
+	public Page pageToClean();
 
 }
@@ -0,0 +1,277 @@
+package kernel;
+
+import machine.Configuration;
+import machine.Lib;
+import machine.Page;
+import machine.PageTable;
+import junit.framework.TestCase;
+
+
+public class PageReplacementTest extends TestCase {
+	
+	static final String[] replacers = {"kernel.BasicPageReplacement", "kernel.WSClockPageReplacement",
+		"kernel.LRUKPageReplacement", "kernel.ARCPageReplacement", "kernel.TwoQPageReplacement"};
+	
+	int oldNumPhysPages;
+	
+	int oldWorkingSetWindow;
+	
+	int oldCleanFrames;
+	
+	@Override
+	protected void setUp() throws Exception {
+		oldNumPhysPages = Configuration.numPhysPages;
+		oldWorkingSetWindow = Configuration.workingSetWindow;
+		oldCleanFrames = Configuration.cleanFrames;
+		
+		Configuration.numPhysPages = 4;
+		
+		super.setUp();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		Configuration.numPhysPages = oldNumPhysPages;
+		Configuration.workingSetWindow = oldWorkingSetWindow;
+		Configuration.cleanFrames = oldCleanFrames;
+		
+		super.tearDown();
+	}
+	
+	public void testFreeFramesFirst() throws Exception {
+		for(String name : replacers){
+			PageReplacement replacer = create(name);
+			
+			boolean[] given = new boolean[Configuration.numPhysPages];
+			
+			for(int i = 0; i < Configuration.numPhysPages; i++){
+				int ppn = load(replacer, new Page(i, -1, false, false, false, false));
+				
+				assertTrue(name, replacer.getReplacedPage() == null);
+				assertFalse(name, given[ppn]);
+				
+				given[ppn] = true;
+			}
+		}
+	}
+	
+	public void testReplacesPageInFrame() throws Exception {
+		for(String name : replacers){
+			PageReplacement replacer = create(name);
+			
+			Page[] frames = new Page[Configuration.numPhysPages];
+			
+			for(int i = 0; i < 50; i++){
+				Page page = new Page(i, -1, false, false, false, i % 3 == 0);
+				
+				int ppn = load(replacer, page);
+				
+				if(i >= Configuration.numPhysPages){
+					Page replaced = replacer.getReplacedPage();
+					
+					assertTrue(name, replaced == frames[ppn]);
+					
+					replaced.setPresent(false);
+				}
+				
+				frames[ppn] = page;
+				
+				// use some of the pages
+				if(i % 2 == 0){
+					page.setUsed(true);
+					replacer.tick();
+				}
+			}
+		}
+	}
+	
+	public void testFramesOfExitedProcessAreFree() throws Exception {
+		for(String name : replacers){
+			PageReplacement replacer = create(name);
+			
+			PCB pcb = new PCB();
+			pcb.pageTable = new PageTable();
+			
+			for(int i = 0; i < Configuration.numPhysPages; i++){
+				pcb.pageTable.set(i, new Page(i, -1, false, false, false, false));
+				
+				load(replacer, pcb.pageTable.get(i));
+			}
+			
+			replacer.removeProcess(pcb);
+			
+			load(replacer, new Page(0, -1, false, false, false, false));
+			
+			assertTrue(name, replacer.getReplacedPage() == null);
+		}
+	}
+	
+	public void testClockSecondChance() throws Exception {
+		PageReplacement replacer = create("kernel.BasicPageReplacement");
+		
+		Page[] pages = fill(replacer);
+		
+		pages[0].setUsed(true);
+		
+		load(replacer, new Page(10, -1, false, false, false, false));
+		
+		assertTrue(replacer.getReplacedPage() == pages[1]);
+		assertFalse(pages[0].isUsed());
+	}
+	
+	public void testWorkingSetKeepsRecentlyUsedPages() throws Exception {
+		Configuration.workingSetWindow = 2;
+		
+		PageReplacement replacer = create("kernel.WSClockPageReplacement");
+		
+		Page[] pages = fill(replacer);
+		
+		// everything but the last page leaves the working set, the first is dirty
+		pages[0].setDirty(true);
+		
+		for(int i = 0; i < 4; i++){
+			pages[3].setUsed(true);
+			replacer.tick();
+		}
+		
+		// clean pages go before dirty ones
+		load(replacer, new Page(10, -1, false, false, false, false));
+		
+		assertTrue(replacer.getReplacedPage() == pages[1]);
+	}
+	
+	public void testPageToClean() throws Exception {
+		Configuration.cleanFrames = Configuration.numPhysPages;
+		
+		for(String name : replacers){
+			PageReplacement replacer = create(name);
+			
+			Page[] pages = fill(replacer);
+			
+			assertTrue(name, replacer.pageToClean() == null);
+			
+			pages[2].setDirty(true);
+			
+			assertTrue(name, replacer.pageToClean() == pages[2]);
+			
+			// only the pages that will be replaced next are kept clean
+			Configuration.cleanFrames = 0;
+			
+			assertTrue(name, replacer.pageToClean() == null);
+			
+			Configuration.cleanFrames = Configuration.numPhysPages;
+		}
+	}
+	
+	public void testScanResistance() throws Exception {
+		for(String name : new String[]{"kernel.LRUKPageReplacement", "kernel.ARCPageReplacement", "kernel.TwoQPageReplacement"}){
+			PageReplacement replacer = create(name);
+			
+			Page hot = new Page(0, -1, false, false, false, false);
+			
+			// the hot page is used over and over, and has been replaced and loaded again
+			for(int i = 0; i < 3; i++){
+				if(!hot.isPresent()){
+					load(replacer, hot);
+				}
+				
+				for(int j = 0; j < Configuration.numPhysPages; j++){
+					hot.setUsed(true);
+					replacer.tick();
+					
+					load(replacer, new Page(100 + i * 10 + j, -1, false, false, false, false));
+				}
+				
+				hot.setUsed(true);
+				replacer.tick();
+			}
+			
+			assertTrue(name, hot.isPresent());
+			
+			// a long scan of pages used once doesn't push it out
+			for(int i = 0; i < 50; i++){
+				load(replacer, new Page(1000 + i, -1, false, false, false, false));
+				
+				assertTrue(name, replacer.getReplacedPage() != hot);
+			}
+		}
+	}
+	
+	public void testInstructionNeedingTwoPages() throws Exception {
+		Configuration.numPhysPages = 2;
+		
+		for(String name : replacers){
+			PageReplacement replacer = create(name);
+			
+			fill(replacer);
+			
+			// an instruction on one page loading from another, with every page in the working set
+			for(int i = 0; i < 5; i++){
+				Page code = new Page(10 + i, -1, false, false, false, false);
+				Page data = new Page(20 + i, -1, false, false, false, false);
+				
+				load(replacer, code);
+				load(replacer, data);
+				
+				assertTrue(name, code.isPresent());
+				assertTrue(name, data.isPresent());
+			}
+			
+			// the same pages faulting in turn settle down once both are in
+			Page code = new Page(30, -1, false, false, false, false);
+			Page data = new Page(31, -1, false, false, false, false);
+			
+			int faults = 0;
+			
+			for(int i = 0; i < 10; i++){
+				for(Page page : new Page[]{code, data}){
+					if(!page.isPresent()){
+						load(replacer, page);
+						faults++;
+					}
+				}
+			}
+			
+			assertEquals(name, 2, faults);
+		}
+	}
+	
+	private PageReplacement create(String name){
+		return (PageReplacement) Lib.constructObject(name);
+	}
+	
+	/**
+	 * Load pages into every frame
+	 */
+	private Page[] fill(PageReplacement replacer){
+		Page[] pages = new Page[Configuration.numPhysPages];
+		
+		for(int i = 0; i < pages.length; i++){
+			pages[i] = new Page(i, -1, false, false, false, false);
+			
+			load(replacer, pages[i]);
+		}
+		
+		return pages;
+	}
+	
+	/**
+	 * Load a page the way the kernel does, marking the page it replaces as not present
+	 *
+	 * @return the frame the page was loaded into
+	 */
+	private int load(PageReplacement replacer, Page page){
+		replacer.replace(page);
+		
+		if(replacer.getReplacedPage() != null){
+			replacer.getReplacedPage().setPresent(false);
+			replacer.getReplacedPage().setPpn(-1);
+		}
+		
+		page.setPpn(replacer.getPhysicalPageNumber());
+		page.setPresent(true);
+		page.setUsed(false);
+		
+		return page.getPpn();
+	}
+}
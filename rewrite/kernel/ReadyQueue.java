@@ -0,0 +1,95 @@
+package kernel;
+
+/**
+ * A first in first out queue of processes that are ready to run. The links
+ * are kept in the processes themselves so adding, taking the next process and
+ * taking a process out of the middle don't search or allocate anything. A
+ * process can only be in one queue at a time.
+ *
+ * @author pauljohnson
+ *
+ */
+public class ReadyQueue {
+	
+	private PCB head;
+	
+	private PCB tail;
+	
+	private int size;
+	
+	/**
+	 * Add a process to the back of the queue, unless it's already in it
+	 */
+	public void add(PCB pcb){
+		if(pcb.readyQueue == this){
+			return;
+		}
+		
+		if(pcb.readyQueue != null){
+			pcb.readyQueue.remove(pcb);
+		}
+		
+		pcb.readyQueue = this;
+		pcb.prevReady = tail;
+		pcb.nextReady = null;
+		
+		if(tail == null){
+			head = pcb;
+		}else{
+			tail.nextReady = pcb;
+		}
+		
+		tail = pcb;
+		size++;
+	}
+	
+	/**
+	 * Take the process at the front of the queue
+	 *
+	 * @return the process, or null if the queue is empty
+	 */
+	public PCB poll(){
+		PCB pcb = head;
+		
+		if(pcb != null){
+			remove(pcb);
+		}
+		
+		return pcb;
+	}
+	
+	/**
+	 * Take a process out of the queue if it's in it
+	 */
+	public void remove(PCB pcb){
+		if(pcb.readyQueue != this){
+			return;
+		}
+		
+		if(pcb.prevReady == null){
+			head = pcb.nextReady;
+		}else{
+			pcb.prevReady.nextReady = pcb.nextReady;
+		}
+		
+		if(pcb.nextReady == null){
+			tail = pcb.prevReady;
+		}else{
+			pcb.nextReady.prevReady = pcb.prevReady;
+		}
+		
+		pcb.readyQueue = null;
+		pcb.prevReady = null;
+		pcb.nextReady = null;
+		size--;
+	}
+	
+	public boolean isEmpty(){
+		return head == null;
+	}
+	
+	public int size(){
+		return size;
+	}
+
+}
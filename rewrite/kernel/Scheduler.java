@@ -1,17 +1,43 @@
 package kernel;
 
 /**
- * Interface for an object that wishes to schedule processes
- * 
+ * Interface for an object that wishes to schedule processes. The kernel tells
+ * the scheduler whenever a process becomes ready or has to wait, so it never
+ * has to look through the processes for one that can run.
+ *
  * @author pauljohnson
  *
  */
 public interface Scheduler {
-
+	
+	/**
+	 * Pick the next process to run and take it off the ready processes
+	 *
+	 * @param currentProcess the process that was running, already made ready
+	 * 			again if it can carry on
+	 * @return the next process, or null if none are ready
+	 */
 	PCB schedule(PCB currentProcess);
-
+	
 	void addProcess(PCB pcb);
-
+	
 	void removeProcess(PCB pcb);
+	
+	/**
+	 * A process can run, either it has stopped waiting or it has been taken off
+	 * the processor
+	 */
+	void ready(PCB pcb);
+	
+	/**
+	 * A process has to wait for something and can't run until it is ready again
+	 */
+	void waiting(PCB pcb);
+	
+	/**
+	 * Whether the running process should come off the processor before its quantum 
+	 * is up, because a process that should run first has become ready
+	 */
+	boolean preempt(PCB currentProcess);
 
 }
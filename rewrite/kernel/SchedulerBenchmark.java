@@ -0,0 +1,103 @@
+package kernel;
+
+import machine.Configuration;
+import machine.Lib;
+
+/**
+ * Benchmark of the schedulers with many processes that are always ready, a quarter
+ * with twice the normal weight and a quarter with half. For each scheduler and number
+ * of processes prints how long a context switch takes in the scheduler and how far the
+ * share of the processor each process got is from the share its weight should give it.
+ *
+ * Run on its own rather than as part of the tests, as the timings depend on the machine:
+ * <pre>java kernel.SchedulerBenchmark [switches]</pre>
+ *
+ * @author pauljohnson
+ *
+ */
+public class SchedulerBenchmark {
+	
+	static final String[] schedulers = {"kernel.BasicScheduler", "kernel.MLFQScheduler", "kernel.FairShareScheduler"};
+	
+	// up to as many as the kernel can have, to show how the cost of a switch grows
+	static final int[] processCounts = {32, Configuration.maxProcesses};
+	
+	// instructions a process runs in a tick, the kernel counts the real number
+	static final int instructionsPerTick = 1000;
+	
+	public static void main(String[] args) {
+		int switches = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		
+		// warm up every scheduler before timing any, so they are all compiled
+		for(String name : schedulers){
+			for(int count : processCounts){
+				run(name, count, switches);
+			}
+		}
+		
+		for(String name : schedulers){
+			for(int count : processCounts){
+				Result result = run(name, count, switches);
+				
+				System.out.println(String.format("%-26s %5d processes  %5dns a switch  shares up to %3d%% off their weight",
+						name, count, result.elapsed / switches, Math.round(result.worst * 100)));
+			}
+		}
+	}
+	
+	private static class Result {
+		long elapsed;
+		double worst;
+	}
+	
+	private static Result run(String name, int count, int switches){
+		Scheduler scheduler = (Scheduler) Lib.constructObject(name);
+		
+		PCB[] pcbs = new PCB[count];
+		long totalWeight = 0;
+		
+		for(int i = 0; i < pcbs.length; i++){
+			pcbs[i] = new PCB();
+			pcbs[i].pid = i;
+			pcbs[i].weight = i % 4 == 0 ? 2048 : i % 4 == 1 ? 512 : 1024;
+			totalWeight += pcbs[i].weight;
+			
+			scheduler.addProcess(pcbs[i]);
+		}
+		
+		Result result = new Result();
+		
+		long start = System.nanoTime();
+		
+		for(int i = 0; i < switches; i++){
+			// run the process for its whole quantum the way the kernel does
+			PCB pcb = scheduler.schedule(null);
+			
+			pcb.state = PCB.running;
+			pcb.ticks = pcb.quantum;
+			pcb.instructions += (long) pcb.quantum * instructionsPerTick;
+			
+			pcb.state = PCB.ready;
+			scheduler.ready(pcb);
+			
+			pcb.ticks = 0;
+		}
+		
+		result.elapsed = System.nanoTime() - start;
+		
+		long total = 0;
+		
+		for(PCB pcb : pcbs){
+			total += pcb.instructions;
+		}
+		
+		for(PCB pcb : pcbs){
+			double share = (double) pcb.instructions / total;
+			double fair = (double) pcb.weight / totalWeight;
+			
+			result.worst = Math.max(result.worst, Math.abs(share - fair) / fair);
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,350 @@
+package kernel;
+
+import machine.Configuration;
+import machine.Lib;
+import junit.framework.TestCase;
+
+
+public class SchedulerTest extends TestCase {
+	
+	static final String[] schedulers = {"kernel.BasicScheduler", "kernel.MLFQScheduler", "kernel.FairShareScheduler"};
+	
+	// instructions a process runs in a tick, the kernel counts the real number
+	static final int instructionsPerTick = 1000;
+	
+	int oldBoostInterval;
+	
+	@Override
+	protected void setUp() throws Exception {
+		oldBoostInterval = Configuration.boostInterval;
+		
+		super.setUp();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		Configuration.boostInterval = oldBoostInterval;
+		
+		super.tearDown();
+	}
+	
+	public void testWaitingProcessesAreNotScheduled() throws Exception {
+		for(String name : schedulers){
+			Scheduler scheduler = create(name);
+			
+			PCB[] pcbs = add(scheduler, 3);
+			
+			pcbs[1].state = PCB.waiting;
+			scheduler.waiting(pcbs[1]);
+			
+			for(int i = 0; i < 10; i++){
+				PCB next = run(scheduler);
+				
+				assertTrue(name, next != pcbs[1]);
+			}
+			
+			pcbs[1].state = PCB.ready;
+			scheduler.ready(pcbs[1]);
+			
+			boolean scheduled = false;
+			
+			for(int i = 0; i < 3 && !scheduled; i++){
+				scheduled = run(scheduler) == pcbs[1];
+			}
+			
+			assertTrue(name, scheduled);
+		}
+	}
+	
+	public void testRemovedProcessesAreNotScheduled() throws Exception {
+		for(String name : schedulers){
+			Scheduler scheduler = create(name);
+			
+			PCB[] pcbs = add(scheduler, 2);
+			
+			scheduler.removeProcess(pcbs[0]);
+			
+			for(int i = 0; i < 5; i++){
+				assertTrue(name, run(scheduler) == pcbs[1]);
+			}
+			
+			scheduler.removeProcess(pcbs[1]);
+			
+			assertTrue(name, scheduler.schedule(null) == null);
+		}
+	}
+	
+	public void testEveryReadyProcessGetsATurn() throws Exception {
+		for(String name : schedulers){
+			Scheduler scheduler = create(name);
+			
+			PCB[] pcbs = add(scheduler, 5);
+			
+			boolean[] ran = new boolean[pcbs.length];
+			
+			for(int i = 0; i < 50; i++){
+				ran[run(scheduler).pid] = true;
+			}
+			
+			for(int i = 0; i < pcbs.length; i++){
+				assertTrue(name, ran[i]);
+			}
+		}
+	}
+	
+	public void testRoundRobin() throws Exception {
+		Scheduler scheduler = create("kernel.BasicScheduler");
+		
+		PCB[] pcbs = add(scheduler, 3);
+		
+		for(int i = 0; i < 9; i++){
+			assertTrue(run(scheduler) == pcbs[i % 3]);
+		}
+	}
+	
+	public void testProcessesUsingTheirQuantumMoveDown() throws Exception {
+		Scheduler scheduler = create("kernel.MLFQScheduler");
+		
+		PCB pcb = add(scheduler, 1)[0];
+		
+		int quantum = pcb.quantum;
+		
+		run(scheduler);
+		run(scheduler);
+		
+		assertEquals(2, pcb.priority);
+		assertEquals(quantum * 4, pcb.quantum);
+		
+		// can't go below the bottom level
+		for(int i = 0; i < 5; i++){
+			run(scheduler);
+		}
+		
+		assertEquals(Configuration.mlfqLevels - 1, pcb.priority);
+	}
+	
+	public void testProcessesThatWaitGoFirst() throws Exception {
+		Scheduler scheduler = create("kernel.MLFQScheduler");
+		
+		PCB[] pcbs = add(scheduler, 2);
+		PCB interactive = pcbs[0];
+		PCB computing = pcbs[1];
+		
+		// the interactive process waits for input straight away
+		assertTrue(scheduler.schedule(null) == interactive);
+		
+		interactive.ticks = 1;
+		interactive.state = PCB.waiting;
+		scheduler.waiting(interactive);
+		interactive.ticks = 0;
+		
+		for(int i = 0; i < 3; i++){
+			assertTrue(run(scheduler) == computing);
+		}
+		
+		// its input arrives while the other process is running
+		PCB running = scheduler.schedule(null);
+		
+		assertTrue(running == computing);
+		assertFalse(scheduler.preempt(running));
+		
+		interactive.state = PCB.ready;
+		scheduler.ready(interactive);
+		
+		assertTrue(scheduler.preempt(running));
+		
+		running.state = PCB.ready;
+		scheduler.ready(running);
+		
+		assertTrue(scheduler.schedule(running) == interactive);
+	}
+	
+	public void testBoostStopsStarvation() throws Exception {
+		Configuration.boostInterval = 100;
+		
+		Scheduler scheduler = create("kernel.MLFQScheduler");
+		
+		PCB pcb = add(scheduler, 1)[0];
+		
+		run(scheduler);
+		run(scheduler);
+		
+		assertEquals(2, pcb.priority);
+		
+		// the kernel passes in the process that has just run
+		pcb.ticks = Configuration.boostInterval;
+		scheduler.schedule(pcb);
+		
+		assertEquals(0, pcb.priority);
+		assertEquals(Configuration.quantum, pcb.quantum);
+	}
+	
+	public void testSharesFollowWeights() throws Exception {
+		Scheduler scheduler = create("kernel.FairShareScheduler");
+		
+		PCB[] pcbs = new PCB[3];
+		
+		for(int i = 0; i < pcbs.length; i++){
+			pcbs[i] = new PCB();
+			pcbs[i].pid = i;
+			pcbs[i].weight = Configuration.defaultWeight << i;
+			
+			scheduler.addProcess(pcbs[i]);
+		}
+		
+		for(int i = 0; i < 700; i++){
+			run(scheduler);
+		}
+		
+		// 1:2:4
+		for(int i = 1; i < pcbs.length; i++){
+			double ratio = (double) pcbs[i].instructions / pcbs[0].instructions;
+			
+			assertTrue("ratio " + ratio, Math.abs(ratio - (1 << i)) < 0.1 * (1 << i));
+		}
+	}
+	
+	public void testWaitingDoesNotSaveUpTime() throws Exception {
+		Scheduler scheduler = create("kernel.FairShareScheduler");
+		
+		PCB[] pcbs = add(scheduler, 2);
+		PCB sleeper = pcbs[0];
+		
+		assertTrue(scheduler.schedule(null) == sleeper);
+		
+		sleeper.state = PCB.waiting;
+		scheduler.waiting(sleeper);
+		
+		for(int i = 0; i < 20; i++){
+			run(scheduler);
+		}
+		
+		sleeper.state = PCB.ready;
+		scheduler.ready(sleeper);
+		
+		// it goes first, but then has to take turns
+		assertTrue(run(scheduler) == sleeper);
+		
+		int turns = 0;
+		
+		for(int i = 0; i < 10; i++){
+			if(run(scheduler) == sleeper){
+				turns++;
+			}
+		}
+		
+		assertTrue("turns " + turns, turns <= 6);
+	}
+	
+	public void testLowWeightProcessesGiveWay() throws Exception {
+		Scheduler scheduler = create("kernel.FairShareScheduler");
+		
+		PCB idle = new PCB();
+		idle.weight = 3;
+		scheduler.addProcess(idle);
+		
+		PCB other = new PCB();
+		other.pid = 1;
+		other.state = PCB.waiting;
+		scheduler.addProcess(other);
+		
+		// on its own it gets the whole latency
+		assertTrue(scheduler.schedule(null) == idle);
+		assertEquals(Configuration.schedLatency, idle.quantum);
+		
+		idle.ticks = Configuration.minGranularity;
+		assertFalse(scheduler.preempt(idle));
+		
+		other.state = PCB.ready;
+		scheduler.ready(other);
+		
+		assertTrue(scheduler.preempt(idle));
+	}
+	
+	/**
+	 * 128 processes that are always ready, a quarter with twice the normal weight and a 
+	 * quarter with half. The fair share scheduler gives each a share of the processor close 
+	 * to what its weight is worth, the others ignore weights and share it out evenly.
+	 */
+	public void testManyProcessesShares() throws Exception {
+		for(String name : schedulers){
+			Scheduler scheduler = create(name);
+			
+			PCB[] pcbs = new PCB[128];
+			long totalWeight = 0;
+			
+			for(int i = 0; i < pcbs.length; i++){
+				pcbs[i] = new PCB();
+				pcbs[i].pid = i;
+				pcbs[i].weight = i % 4 == 0 ? 2048 : i % 4 == 1 ? 512 : 1024;
+				totalWeight += pcbs[i].weight;
+				
+				scheduler.addProcess(pcbs[i]);
+			}
+			
+			for(int i = 0; i < 100000; i++){
+				run(scheduler);
+			}
+			
+			long total = 0;
+			
+			for(PCB pcb : pcbs){
+				total += pcb.instructions;
+			}
+			
+			boolean weighted = name.equals("kernel.FairShareScheduler");
+			
+			double worst = 0;
+			
+			for(PCB pcb : pcbs){
+				double share = (double) pcb.instructions / total;
+				double fair = weighted ? (double) pcb.weight / totalWeight : 1.0 / pcbs.length;
+				
+				worst = Math.max(worst, Math.abs(share - fair) / fair);
+			}
+			
+			assertTrue(name + " shares up to " + Math.round(worst * 100) + "% off", worst < 0.05);
+		}
+	}
+	
+	private Scheduler create(String name){
+		return (Scheduler) Lib.constructObject(name);
+	}
+	
+	/**
+	 * Add ready processes with pids from 0
+	 */
+	private PCB[] add(Scheduler scheduler, int count){
+		PCB[] pcbs = new PCB[count];
+		
+		for(int i = 0; i < count; i++){
+			pcbs[i] = new PCB();
+			pcbs[i].pid = i;
+			
+			scheduler.addProcess(pcbs[i]);
+		}
+		
+		return pcbs;
+	}
+	
+	/**
+	 * Schedule a process and run it for its whole quantum the way the kernel does,
+	 * putting it back as ready afterwards
+	 *
+	 * @return the process that ran
+	 */
+	private PCB run(Scheduler scheduler){
+		PCB pcb = scheduler.schedule(null);
+		
+		pcb.state = PCB.running;
+		pcb.ticks = pcb.quantum;
+		pcb.instructions += (long) pcb.quantum * instructionsPerTick;
+		
+		pcb.state = PCB.ready;
+		scheduler.ready(pcb);
+		
+		pcb.ticks = 0;
+		
+		return pcb;
+	}
+}
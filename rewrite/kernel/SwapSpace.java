@@ -0,0 +1,204 @@
+package kernel;
+
+import java.util.BitSet;
+
+import hardware.HardDrive;
+import hardware.IOOperation;
+import machine.Configuration;
+import machine.Machine;
+
+/**
+ * The area of the hard drive after the file system that evicted pages are
+ * written to. It is split into page sized slots which are handed out to pages
+ * the first time they are saved and given back when nothing refers to them.
+ *
+ * Runs of neighbouring pages can be given consecutive slots so that they are
+ * written, and read back ahead of being needed, in a single drive operation.
+ *
+ * @author pauljohnson
+ *
+ */
+public class SwapSpace {
+	private Machine machine;
+
+	// which slots are in use
+	private BitSet used = new BitSet(Configuration.swapPages);
+
+	// where the search for free slots carries on from, just after the last run handed out
+	private int next = 0;
+
+	// slots read ahead of being needed by the last call to readAhead
+	private byte[] ahead;
+	private int aheadSlot = -1;
+	private int aheadCount;
+
+	public SwapSpace(Machine machine) {
+		this.machine = machine;
+	}
+
+	/**
+	 * Find a free slot
+	 *
+	 * @return the slot
+	 */
+	public int allocate(){
+		int slot = allocate(1);
+
+		if(slot == -1){
+			throw new KernelFault("Out of swap space");
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Find a run of consecutive free slots, next fit - the search starts after the
+	 * last run handed out and wraps round to the beginning
+	 *
+	 * @param count number of slots needed
+	 * @return the first slot of the run or -1 if there isn't a long enough run free
+	 */
+	public int allocate(int count){
+		int first = findRun(next, Configuration.swapPages, count);
+
+		if(first == -1){
+			first = findRun(0, Math.min(next + count - 1, Configuration.swapPages), count);
+		}
+
+		if(first == -1){
+			return -1;
+		}
+
+		used.set(first, first + count);
+
+		next = first + count;
+
+		return first;
+	}
+
+	/**
+	 * Find a run of free slots that ends before <i>limit</i>, jumping from one free
+	 * run to the next rather than looking at every slot
+	 *
+	 * @return the first slot of the run or -1 if there isn't one
+	 */
+	private int findRun(int from, int limit, int count){
+		int first = used.nextClearBit(from);
+
+		while(first + count <= limit){
+			int end = used.nextSetBit(first);
+
+			if(end == -1 || end >= first + count){
+				return first;
+			}
+
+			first = used.nextClearBit(end);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Give a slot back once no pages refer to it
+	 */
+	public void free(int slot){
+		used.clear(slot);
+	}
+
+	/**
+	 * Write a page to a slot
+	 */
+	public void write(int slot, byte[] data){
+		write(slot, data, 1);
+	}
+
+	/**
+	 * Write <i>count</i> pages to consecutive slots in one drive operation
+	 */
+	public void write(int slot, byte[] data, int count){
+		IOOperation operation = startWrite(slot, data, count);
+
+		machine.waitForHardDrive(operation);
+
+		if(operation.rval < 0){
+			throw new KernelFault("Unable to write to swap");
+		}
+	}
+
+	/**
+	 * Start writing <i>count</i> pages to consecutive slots without waiting for the
+	 * drive. The drive works through operations in order so reading the slots
+	 * afterwards gets what was written. Once the write is done the operation goes
+	 * to <tt>Kernel.ioCompleted</tt>.
+	 *
+	 * @param data the pages, which mustn't be changed until the write is done
+	 */
+	public IOOperation startWrite(int slot, byte[] data, int count){
+		// whatever was read ahead of these slots is out of date now
+		if(slot < aheadSlot + aheadCount && aheadSlot < slot + count){
+			aheadCount = 0;
+		}
+
+		IOOperation operation = new IOOperation();
+		operation.action = HardDrive.write;
+		operation.position = position(slot, count);
+		operation.rdata = data;
+
+		machine.hd.operations.add(operation);
+
+		return operation;
+	}
+
+	/**
+	 * Read a page from a slot
+	 */
+	public void read(int slot, byte[] data){
+		if(slot >= aheadSlot && slot < aheadSlot + aheadCount){
+			System.arraycopy(ahead, (slot - aheadSlot) * Configuration.pageSize, data, 0, Configuration.pageSize);
+			return;
+		}
+
+		IOOperation operation = new IOOperation();
+		operation.action = HardDrive.read;
+		operation.position = position(slot, 1);
+		operation.length = data.length;
+
+		machine.hd.operations.add(operation);
+
+		machine.waitForHardDrive(operation);
+
+		if(operation.rval != data.length){
+			throw new KernelFault("Unable to read from swap");
+		}
+
+		System.arraycopy(operation.rdata, 0, data, 0, data.length);
+	}
+
+	/**
+	 * Read <i>count</i> consecutive slots in one drive operation so that the
+	 * following reads of them don't have to go to the drive
+	 */
+	public void readAhead(int slot, int count){
+		IOOperation operation = new IOOperation();
+		operation.action = HardDrive.read;
+		operation.position = position(slot, count);
+		operation.length = count * Configuration.pageSize;
+
+		machine.hd.operations.add(operation);
+
+		machine.waitForHardDrive(operation);
+
+		// keep the whole pages that could be read, the end of the swap area may not have been written yet
+		ahead = operation.rdata;
+		aheadSlot = slot;
+		aheadCount = Math.max(operation.rval, 0) / Configuration.pageSize;
+	}
+
+	private int position(int slot, int count){
+		if(slot < 0 || slot + count > Configuration.swapPages){
+			throw new KernelFault("Bad swap slot " + slot);
+		}
+
+		return Configuration.swapOffset + slot * Configuration.pageSize;
+	}
+}
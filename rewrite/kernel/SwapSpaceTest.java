@@ -0,0 +1,60 @@
+package kernel;
+
+import machine.Configuration;
+import junit.framework.TestCase;
+
+
+public class SwapSpaceTest extends TestCase {
+
+	public void testRunsAreConsecutiveAndDontOverlap() throws Exception {
+		SwapSpace swap = new SwapSpace(null);
+
+		int first = swap.allocate(4);
+		int second = swap.allocate(3);
+
+		assertEquals(0, first);
+		assertEquals(4, second);
+
+		// a single slot freed in the middle of a run is too short for another run
+		swap.free(1);
+
+		int third = swap.allocate(2);
+
+		assertEquals(7, third);
+	}
+
+	public void testCarriesOnFromLastRun() throws Exception {
+		SwapSpace swap = new SwapSpace(null);
+
+		swap.allocate(4);
+		swap.free(0);
+
+		// next fit - the slot just freed isn't the first one looked at
+		assertEquals(4, swap.allocate());
+		assertEquals(5, swap.allocate());
+	}
+
+	public void testWrapsRoundWhenEndIsFull() throws Exception {
+		SwapSpace swap = new SwapSpace(null);
+
+		for(int i = 0; i < Configuration.swapPages; i++){
+			assertEquals(i, swap.allocate());
+		}
+
+		assertEquals(-1, swap.allocate(1));
+
+		swap.free(2);
+		swap.free(3);
+		swap.free(10);
+
+		assertEquals(2, swap.allocate(2));
+		assertEquals(10, swap.allocate(1));
+		assertEquals(-1, swap.allocate(1));
+
+		try {
+			swap.allocate();
+			fail("allocated a slot from a full swap area");
+		} catch (KernelFault e) {
+		}
+	}
+}
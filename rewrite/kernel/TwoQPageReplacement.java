@@ -0,0 +1,94 @@
+package kernel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import machine.Page;
+
+/**
+ * 2Q page replacement. New pages go into a small first in first out queue
+ * (a1in) and are replaced from there unless they are loaded again soon after,
+ * while they are remembered in a1out. Those pages go into the main least
+ * recently used queue (am), so a scan through memory can't push out the pages
+ * programs keep using.
+ *
+ * @author pauljohnson
+ *
+ */
+public class TwoQPageReplacement extends AbstractPageReplacement {
+	
+	// a quarter of memory for new pages, remember replaced ones for half as many again
+	private int kin = Math.max(1, frames.size() / 4);
+	private int kout = Math.max(1, frames.size() / 2);
+	
+	// frames of new pages, oldest first
+	private LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();
+	
+	// pages replaced from a1in, oldest first
+	private LinkedHashSet<Page> a1out = new LinkedHashSet<Page>();
+	
+	// frames of pages used again, least recently used first
+	private LinkedHashSet<Integer> am = new LinkedHashSet<Integer>();
+	
+	@Override
+	public boolean tick() {
+		super.tick();
+		
+		return sample();
+	}
+	
+	@Override
+	protected void referenced(int ppn) {
+		// uses while in a1in are ignored, they are usually the same burst of accesses
+		if(am.remove(ppn)){
+			am.add(ppn);
+		}
+	}
+	
+	@Override
+	protected void loaded(int ppn, Page page) {
+		if(a1out.remove(page)){
+			am.add(ppn);
+		}else{
+			a1in.add(ppn);
+		}
+	}
+	
+	@Override
+	protected void removed(int ppn) {
+		a1in.remove(ppn);
+		am.remove(ppn);
+	}
+	
+	/**
+	 * Pages usually go from a1in and then from the least recently used end of am
+	 */
+	@Override
+	public Page pageToClean() {
+		List<Integer> order = new ArrayList<Integer>(a1in);
+		order.addAll(am);
+		
+		return firstDirty(order);
+	}
+	
+	@Override
+	protected int selectVictim(Page pageToLoad) {
+		sample();
+		
+		if(a1in.size() > kin || am.isEmpty()){
+			int ppn = removeFirst(a1in);
+			
+			a1out.add(frames.get(ppn));
+			
+			if(a1out.size() > kout){
+				removeFirst(a1out);
+			}
+			
+			return ppn;
+		}
+		
+		return removeFirst(am);
+	}
+	
+}
@@ -5,6 +5,7 @@ import java.util.Arrays;
 import machine.Configuration;
 import machine.Machine;
 import machine.Page;
+import machine.PageTable;
 import filesystem.BasicFileSystem;
 import filesystem.CreateFS;
 import junit.framework.TestCase;
@@ -48,152 +49,134 @@ public class VMTest extends TestCase {
 	}
 	
 	public void testSavePage() throws Exception {
-		PCB pcb = new PCB();
-		pcb.pageTable = new Page[Configuration.numVirtualPages];
-		pcb.name = "blah";
-		kernel.process = pcb;
-		kernel.addProcess(pcb);
-		
-		Page page = new Page(0, 0, true, false, true, true);
-		
-		page.pid = pcb.pid;
-		
-		pcb.pageTable[0] = page;
-		
+		PCB pcb = createProcess();
 		
-		// write some data to memory
+		Page page = residentPage(pcb, 0);
 		
-		machine.memory().setPageTable(pcb.pageTable);
-		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			machine.memory().writeMem(i, 1, 32);
-		}
+		fill(page, 32);
 		
 		kernel.savePage(page);
 		
-		assertFalse(page.dirty);
-		assertFalse(page.present);
-		assertTrue(page.ppn == -1);
-		assertTrue(page.saved);
+		assertFalse(page.isDirty());
+		assertFalse(page.isPresent());
+		assertTrue(page.getPpn() == -1);
+		assertTrue(page.isSaved());
+		assertTrue(page.swapSlot != -1);
 		
-		// write over memory
+		// the page is in its slot in the swap area
+		byte[] saved = new byte[Configuration.pageSize];
 		
-		page.ppn = 0;
-		page.present = true;
+		kernel.swap.read(page.swapSlot, saved);
 		
 		for(int i = 0; i < Configuration.pageSize; i++){
-			machine.memory().writeMem(i, 1, 17);
-		}
-		
-		// read from page file back to memory
-		int fid = fs.open("0_blah" , pcb);
-		
-		fs.read(fid, Configuration.pageSize, 0, kernel, pcb);
-		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			assertTrue(machine.memory().readMem(i, 1) == 32);
+			assertTrue(saved[i] == 32);
 		}
 	}
 	
 	public void testSavePageOffset() throws Exception {
-		PCB pcb = new PCB();
-		pcb.pageTable = new Page[Configuration.numVirtualPages];
-		pcb.name = "blah";
-		kernel.process = pcb;
-		kernel.addProcess(pcb);
+		PCB pcb = createProcess();
 		
-		Page page = new Page(3, 0, true, false, true, true);
+		// two pages through the same frame go to slots of their own
+		Page first = residentPage(pcb, 0);
 		
-		page.pid = pcb.pid;
+		fill(first, 32);
 		
-		pcb.pageTable[0] = page;
+		kernel.savePage(first);
 		
+		Page second = residentPage(pcb, 3);
 		
-		// write some data to memory
+		fill(second, 17);
 		
-		machine.memory().setPageTable(pcb.pageTable);
+		kernel.savePage(second);
 		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			machine.memory().writeMem(i, 1, 32);
-		}
+		assertTrue(first.swapSlot != -1);
+		assertTrue(second.swapSlot != -1);
+		assertTrue(first.swapSlot != second.swapSlot);
 		
-		kernel.savePage(page);
+		byte[] saved = new byte[Configuration.pageSize];
 		
-		assertFalse(page.dirty);
-		assertFalse(page.present);
-		assertTrue(page.ppn == -1);
-		assertTrue(page.saved);
+		kernel.swap.read(first.swapSlot, saved);
 		
-		// write over memory
+		for(int i = 0; i < Configuration.pageSize; i++){
+			assertTrue(saved[i] == 32);
+		}
 		
-		page.ppn = 0;
-		page.present = true;
+		kernel.swap.read(second.swapSlot, saved);
 		
 		for(int i = 0; i < Configuration.pageSize; i++){
-			machine.memory().writeMem(i, 1, 17);
+			assertTrue(saved[i] == 17);
 		}
+	}
+	
+	public void testLoadPage() throws Exception {
+		PCB pcb = createProcess();
 		
-		// read from page file back to memory
-		int fid = fs.open("0_blah" , pcb);
+		// a page that was written to swap earlier
+		int slot = kernel.swap.allocate();
 		
-		fs.seek(fid, 3072, pcb);
+		byte[] data = new byte[Configuration.pageSize];
+		Arrays.fill(data, (byte) 32);
 		
-		int rval = fs.read(fid, Configuration.pageSize, 0, kernel, pcb);
+		kernel.swap.write(slot, data);
 		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			assertTrue(machine.memory().readMem(i, 1) == 32);
-		}
+		Page page = savedPage(pcb, 0, slot);
+		
+		// something else was in the frame
+		Arrays.fill(machine.memory().getMemory(), 0, Configuration.pageSize, (byte) 17);
+		
+		kernel.loadPage(page, 0);
+		
+		assertFalse(page.isDirty());
+		assertTrue(page.isPresent());
+		assertTrue(page.getPpn() == 0);
+		
+		assertFilled(page, 32);
 	}
 	
-	public void testLoadPage() throws Exception {
-		PCB pcb = new PCB();
-		pcb.pageTable = new Page[Configuration.numVirtualPages];
-		pcb.name = "blah";
-		kernel.process = pcb;
-		kernel.addProcess(pcb);
+	public void testLoadPageReadAhead() throws Exception {
+		PCB pcb = createProcess();
 		
-		Page page = new Page(0, 0, true, false, true, true);
+		// two pages written out together to consecutive slots
+		int slot = kernel.swap.allocate(2);
 		
-		page.pid = pcb.pid;
+		byte[] data = new byte[2 * Configuration.pageSize];
+		Arrays.fill(data, 0, Configuration.pageSize, (byte) 32);
+		Arrays.fill(data, Configuration.pageSize, data.length, (byte) 17);
 		
-		pcb.pageTable[0] = page;
+		kernel.swap.write(slot, data, 2);
 		
+		Page first = savedPage(pcb, 0, slot);
+		Page second = savedPage(pcb, 1, slot + 1);
 		
-		// write some data to memory
+		kernel.swap.readAhead(slot, 2);
 		
-		machine.memory().setPageTable(pcb.pageTable);
+		kernel.loadPage(first, 0);
 		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			machine.memory().writeMem(i, 1, 32);
-		}
+		assertFilled(first, 32);
 		
-		int fid = fs.create("0_blah", pcb);
+		kernel.savePage(first);
 		
-		fs.write(fid, Configuration.pageSize, 0, kernel, pcb);
+		kernel.loadPage(second, 0);
 		
-		fs.close(fid, pcb);
+		assertFilled(second, 17);
 		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			machine.memory().writeMem(i, 1, 17);
-		}
+		// writing a slot that was read ahead replaces what was read
+		kernel.swap.readAhead(slot, 2);
 		
-		page.present = false;
-		page.ppn = 0;
-		page.saved = true;
+		Arrays.fill(data, 0, Configuration.pageSize, (byte) 45);
 		
-		kernel.loadPage(page, 0);
+		kernel.swap.write(slot, data);
 		
-		assertFalse(page.dirty);
-		assertTrue(page.present);
+		kernel.savePage(second);
 		
-		for(int i = 0; i < Configuration.pageSize; i++){
-			assertTrue(machine.memory().readMem(i, 1) == 32);
-		}
+		kernel.loadPage(first, 0);
+		
+		assertFilled(first, 45);
 	}
 	
 	public void testSaveLoad() throws Exception {
 		PCB pcb = new PCB();
-		pcb.pageTable = new Page[Configuration.numVirtualPages];
+		pcb.pageTable = new PageTable();
 		pcb.name = "blah";
 		kernel.process = pcb;
 		kernel.addProcess(pcb);
@@ -202,7 +185,7 @@ public class VMTest extends TestCase {
 		
 		page.pid = pcb.pid;
 		
-		pcb.pageTable[3] = page;
+		pcb.pageTable.set(3, page);
 		
 		
 		// write some data to memory
@@ -215,21 +198,21 @@ public class VMTest extends TestCase {
 		
 		kernel.savePage(page);
 		
-		assertFalse(page.dirty);
-		assertFalse(page.present);
-		assertTrue(page.ppn == -1);
-		assertTrue(page.saved);
+		assertFalse(page.isDirty());
+		assertFalse(page.isPresent());
+		assertTrue(page.getPpn() == -1);
+		assertTrue(page.isSaved());
 		
 		// write over memory
 		
-		page.ppn = 0;
-		page.present = true;
+		page.setPpn(0);
+		page.setPresent(true);
 		
 		for(int i = 0; i < Configuration.pageSize; i++){
 			machine.memory().writeMem(i + (3*Configuration.pageSize), 1, 17);
 		}
 		
-		page.present = false;
+		page.setPresent(false);
 		
 		kernel.loadPage(page, 0);
 		
@@ -245,4 +228,61 @@ public class VMTest extends TestCase {
 	public void testCheckInMemory() throws Exception {
 		fail("not done");
 	}
+	
+	/**
+	 * Create a process and make it the current one
+	 */
+	private PCB createProcess(){
+		PCB pcb = new PCB();
+		pcb.pageTable = new PageTable();
+		pcb.name = "blah";
+		kernel.process = pcb;
+		kernel.addProcess(pcb);
+		
+		machine.memory().setPageTable(pcb.pageTable);
+		
+		return pcb;
+	}
+	
+	/**
+	 * Add a page that is in frame 0 and has been written to
+	 */
+	private Page residentPage(PCB pcb, int vpn){
+		Page page = new Page(vpn, 0, true, false, true, true);
+		
+		page.pid = pcb.pid;
+		
+		pcb.pageTable.set(vpn, page);
+		
+		machine.memory().flushTLB();
+		
+		return page;
+	}
+	
+	/**
+	 * Add a page that is only in a swap slot
+	 */
+	private Page savedPage(PCB pcb, int vpn, int slot){
+		Page page = new Page(vpn, -1, false, false, false, false);
+		
+		page.pid = pcb.pid;
+		page.swapSlot = slot;
+		page.setSaved(true);
+		
+		pcb.pageTable.set(vpn, page);
+		
+		return page;
+	}
+	
+	private void fill(Page page, int value) throws Exception {
+		for(int i = 0; i < Configuration.pageSize; i++){
+			machine.memory().writeMem(page.vpn * Configuration.pageSize + i, 1, value);
+		}
+	}
+	
+	private void assertFilled(Page page, int value) throws Exception {
+		for(int i = 0; i < Configuration.pageSize; i++){
+			assertTrue(machine.memory().readMem(page.vpn * Configuration.pageSize + i, 1) == value);
+		}
+	}
 }
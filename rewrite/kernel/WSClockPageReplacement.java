@@ -0,0 +1,102 @@
+package kernel;
+
+import machine.Configuration;
+import machine.Page;
+
+/**
+ * Working set clock page replacement. Pages that haven't been used for
+ * <tt>Configuration.workingSetWindow</tt> ticks are out of their process's
+ * working set and can be replaced, clean ones first as they don't have to be
+ * written out. If every page is in a working set the one used longest ago goes,
+ * but never the page that was loaded last or one used since the hand last came
+ * round - an instruction that needs two pages must be able to have both in memory.
+ *
+ * @author pauljohnson
+ *
+ */
+public class WSClockPageReplacement extends AbstractPageReplacement {
+	
+	private int clockHand = 0;
+	
+	// tick each frame was last seen used
+	private long[] lastUse = new long[frames.size()];
+	
+	// frame the last page was loaded into
+	private int lastLoaded = -1;
+	
+	@Override
+	public boolean tick() {
+		super.tick();
+		
+		return sample();
+	}
+	
+	@Override
+	protected void referenced(int ppn) {
+		lastUse[ppn] = ticks;
+	}
+	
+	@Override
+	protected void loaded(int ppn, Page page) {
+		referenced(ppn);
+		
+		lastLoaded = ppn;
+	}
+	
+	@Override
+	protected int cleanerStart() {
+		return clockHand;
+	}
+	
+	@Override
+	protected int selectVictim(Page pageToLoad) {
+		int dirty = -1;
+		int oldest = -1;
+		
+		// used in this scan, only replaced if everything else has been too
+		int used = -1;
+		
+		for(int i = 0; i < frames.size(); i++){
+			int ppn = clockHand;
+			
+			clockHand = (clockHand + 1) % frames.size();
+			
+			if(ppn == lastLoaded){
+				continue;
+			}
+			
+			if(testAndClear(ppn)){
+				referenced(ppn);
+				
+				if(used == -1){
+					used = ppn;
+				}
+				
+				continue;
+			}
+			
+			if(ticks - lastUse[ppn] > Configuration.workingSetWindow){
+				// out of the working set - clean pages can be dropped straight away
+				if(!frames.get(ppn).isDirty()){
+					return ppn;
+				}
+				
+				if(dirty == -1){
+					dirty = ppn;
+				}
+			}
+			
+			// the first in clock order wins a tie
+			if(oldest == -1 || lastUse[ppn] < lastUse[oldest]){
+				oldest = ppn;
+			}
+		}
+		
+		int ppn = dirty != -1 ? dirty : oldest != -1 ? oldest : used != -1 ? used : lastLoaded;
+		
+		clockHand = (ppn + 1) % frames.size();
+		
+		return ppn;
+	}
+
+}
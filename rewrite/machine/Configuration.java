@@ -7,11 +7,41 @@ package machine;
  *
  */
 public class Configuration {
-	/** class name for the scheduler */
-	public final static String scheduler = "kernel.BasicScheduler";
+	/** class name for the scheduler - kernel.BasicScheduler, kernel.MLFQScheduler or kernel.FairShareScheduler */
+	public static String scheduler = "kernel.BasicScheduler";
+	
+	/** Number of priority levels of the multi-level feedback queue, each has twice the quantum of the one above */
+	public static int mlfqLevels = 3;
+	
+	/** Number of ticks between the multi-level feedback queue moving every process back to the top level */
+	public static int boostInterval = 200;
+	
+	/** Number of ticks the fair share scheduler shares out between the ready processes */
+	public static int schedLatency = 30;
+	
+	/** Fewest ticks the fair share scheduler runs a process for, however many are ready */
+	public static int minGranularity = 2;
+	
+	/** Share of the processor a process gets under the fair share scheduler, relative to other processes */
+	public static int defaultWeight = 1024;
+	
+	/** Weights of particular programs, as name=weight separated by commas */
+	public static String programWeights = "";
 
-	/** class name for the page replacer */
-	public final static String replacer = "kernel.BasicPageReplacement";
+	/** 
+	 * class name for the page replacer - kernel.BasicPageReplacement, kernel.WSClockPageReplacement, 
+	 * kernel.LRUKPageReplacement, kernel.ARCPageReplacement or kernel.TwoQPageReplacement
+	 */
+	public static String replacer = "kernel.BasicPageReplacement";
+	
+	/** Number of ticks a page can go unused before it leaves the working set */
+	public static int workingSetWindow = 10;
+	
+	/** Number of past uses LRU-K page replacement goes by */
+	public static int lruK = 2;
+	
+	/** Number of pages the page replacer will replace next that the page cleaner keeps clean */
+	public static int cleanFrames = 2;
 	
 	/** class name for the file system */
 	public final static String fileSystem = "filesystem.BasicFileSystem";
@@ -36,14 +66,51 @@ public class Configuration {
 	/** Number of physical pages in memory. */
 	public static int numPhysPages = 4;
 	
-	public static int numVirtualPages = 32;
+	/** 
+	 * Number of pages in the address space of a process. Page tables are only filled in 
+	 * as pages are used so this can be much bigger than physical memory
+	 */
+	public static int numVirtualPages = 4096;
+	
+	/** Number of entries in the software TLB, must be a power of two */
+	public static final int tlbSize = 16;
+	
+	/** 
+	 * Raise a TLB miss exception for the kernel to refill the TLB rather than having the 
+	 * memory walk the page table itself 
+	 */
+	public static boolean kernelTLBRefill = false;
 
+	/** Translate hot blocks of user code rather than interpreting every instruction */
+	public static boolean translateBlocks = true;
+	
+	/** Number of times a branch target has to be reached before its block is translated */
+	public static int translationThreshold = 50;
+	
+	/** 
+	 * Number of instructions (or translated blocks) the processor runs between checks for 
+	 * interrupts - 1 checks after every one 
+	 */
+	public static int interruptCheckInterval = 1;
+	
 	/** How often the clock ticks */
 	public static int switchTime = 5;
 	
 	/** delay for the hard drive */
 	public static int driveDelay = 10;
 	
+	/** 
+	 * Run the timer and hard drive on a virtual clock counted in instructions, in the processor's 
+	 * thread, instead of in threads that sleep. Runs go as fast as the processor and are reproducible.
+	 */
+	public static boolean virtualTime = false;
+	
+	/** Instructions between clock ticks in virtual time */
+	public static int switchInstructions = 100000;
+	
+	/** Instructions a hard drive operation takes in virtual time */
+	public static int driveInstructions = 200000;
+	
 	/** name of the file that makes up the file system */
 	public static String diskFileName = "filesystem";
 	
@@ -76,6 +143,21 @@ public class Configuration {
 	/** offset from the start of disk to where the file blocks start*/
 	public static int fileOffset = bootBlockLength + fatLength + superBlockSize + entryTableLength;
 	
+	/** Number of page sized slots in the swap area */
+	public static int swapPages = 512;
+	
+	/** offset from the start of disk to the swap area, straight after the file blocks */
+	public static int swapOffset = fileOffset + numberOfBlocks * blockSize;
+	
+	/** 
+	 * Most pages written to swap together when a dirty page is replaced, or brought in 
+	 * together when a process faults through its pages in order 
+	 */
+	public static int pageCluster = 4;
+	
+	/** Total length of the disk */
+	public static int diskLength = swapOffset + swapPages * pageSize;
+	
 	/** Details for a file entry table */
 	// file name
 	public static int fileNameOffset = 0;
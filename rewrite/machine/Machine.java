@@ -1,5 +1,6 @@
 package machine;
 
+import hardware.Clock;
 import hardware.HardDrive;
 import hardware.IOOperation;
 import hardware.Interrupt;
@@ -10,8 +11,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import kernel.Kernel;
 
@@ -34,6 +39,12 @@ public class Machine {
 
 	/** queue of pieces of io hardware that are interrupting and waiting to be handled */
 	private PriorityBlockingQueue<Interrupt> interrupts;
+	
+	/** 
+	 * number of interrupts in the queue - devices increment it after adding themselves 
+	 * so the processor only has to lock the queue when something is actually there 
+	 */
+	private AtomicInteger pendingInterrupts = new AtomicInteger();
 
 	private Processor processor = null;
 	private Memory memory = null;
@@ -42,6 +53,9 @@ public class Machine {
 	public Timer timer = null;
 	/** Hard drive */
 	public HardDrive hd = null;
+	
+	/** Virtual time the devices run on, null if they run in their own threads */
+	public Clock clock = null;
 
 	private long randomSeed = 0;
 
@@ -52,6 +66,97 @@ public class Machine {
 		return interrupts;
 	}
 
+	/**
+	 * Cheap check for whether there are any interrupts waiting to be handled.
+	 */
+	public boolean interruptPending() {
+		return pendingInterrupts.get() > 0;
+	}
+	
+	/**
+	 * Take the highest priority interrupt off the queue if there is one.
+	 * 
+	 * @return the interrupt or null if none are waiting
+	 */
+	public Interrupt pollInterrupt() {
+		Interrupt interrupt = interrupts.poll();
+		
+		if(interrupt != null){
+			pendingInterrupts.decrementAndGet();
+		}
+		
+		return interrupt;
+	}
+	
+	/**
+	 * Wait for an interrupt and take it off the queue.
+	 */
+	public Interrupt takeInterrupt() throws InterruptedException {
+		// nothing else moves virtual time on while the processor waits, so jump to the next event
+		if(clock != null){
+			while(!interruptPending()){
+				Lib.assert_(clock.skip());
+			}
+		}
+		
+		Interrupt interrupt = interrupts.take();
+		
+		pendingInterrupts.decrementAndGet();
+		
+		return interrupt;
+	}
+	
+	/**
+	 * Put interrupts that were taken but not handled back on the queue.
+	 */
+	public void requeueInterrupts(Collection<Interrupt> taken) {
+		interrupts.addAll(taken);
+		
+		pendingInterrupts.addAndGet(taken.size());
+	}
+
+	/**
+	 * Wait for the HardDrive to finish an IO request, putting any other 
+	 * interrupts that arrive in the meantime back on the queue. Operations 
+	 * the drive finishes for processes along with this one are passed to 
+	 * the kernel.
+	 */
+	public void waitForHardDrive(IOOperation operation){
+		List<Interrupt> reinterrupts = new ArrayList<Interrupt>();
+		
+		boolean done = false;
+		
+		// take interrupts till we get a response from the hard disk
+		while(!done){
+			Interrupt interrupt;
+			try {
+				interrupt = takeInterrupt();
+				
+				if(interrupt instanceof HardDrive){
+					interrupt.acknowledge();
+					
+					IOOperation completed;
+					
+					while((completed = hd.completions.poll()) != null){
+						if(completed == operation){
+							done = true;
+						}else{
+							kernel.ioCompleted(completed);
+						}
+					}
+				}else{
+					reinterrupts.add(interrupt);
+				}
+				
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		// add interrupts back to queue and continue
+		requeueInterrupts(reinterrupts);
+	}
+
 	public Processor processor() {
 		return processor;
 	}
@@ -84,7 +189,11 @@ public class Machine {
 		createDevices();
 
 		// start hard drive device
-		new Thread(hd, "Hard Drive thread").start();
+		if(clock != null){
+			hd.start(clock, Configuration.driveInstructions);
+		}else{
+			new Thread(hd, "Hard Drive thread").start();
+		}
 		
 		// load first block of hard drive
 		IOOperation ioop = new IOOperation();
@@ -95,13 +204,10 @@ public class Machine {
 		hd.operations.add(ioop);
 		try {
 			// wait for the hard drive to complete
-			interrupts.take().acknowledge();
+			waitForHardDrive(ioop);
 			
 			// ioop will now contain the data from the first block so write it to memory
-			for(int i = 0; i < 1024; i++){
-				byte b = ioop.rdata[i];
-				memory.writeMem(i, 1, b);
-			}
+			memory.writeBlock(0, ioop.rdata, 0, Configuration.bootBlockLength);
 			
 			// create kernel and set it to catch interrupts from the processor
 			kernel = new Kernel(this);
@@ -110,8 +216,6 @@ public class Machine {
 			
 			// start processor emulating
 			processor.emulate();
-		} catch (InterruptedException e1) {
-			e1.printStackTrace();
 		} catch (MipsException e) {
 			e.printStackTrace();
 		}
@@ -135,13 +239,27 @@ public class Machine {
 
 		// create timer
 		timer = new Timer(Configuration.switchTime);
-		timer.setQueue(interrupts);
+		timer.setQueue(interrupts, pendingInterrupts);
 		
 		// create hardisk
 		hd = new HardDrive();
 		hd.operations = new LinkedBlockingQueue<IOOperation>();
-		hd.setQueue(interrupts);
+		hd.setQueue(interrupts, pendingInterrupts);
 		
+		if(Configuration.virtualTime){
+			clock = new Clock();
+		}
+	}
+	
+	/**
+	 * Start the timer generating context switching interrupts
+	 */
+	public void startTimer(){
+		if(clock != null){
+			timer.start(clock, Configuration.switchInstructions);
+		}else{
+			new Thread(timer, "Timer Thread").start();
+		}
 	}
 	
 	public void startHardware(){
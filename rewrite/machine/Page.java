@@ -1,20 +1,36 @@
 package machine;
 
+import java.util.List;
 
 /**
- * A single translation between a virtual page and a physical page.
+ * A single translation between a virtual page and a physical page. The bits
+ * the memory looks at when translating are packed into an int, kept in the
+ * page table the page is in so translation never has to go through the page
+ * itself.
  */
 public final class Page {
+	/** Bits of a packed page table entry. */
+	public static final int presentBit = 1 << 0;
+	public static final int readOnlyBit = 1 << 1;
+	public static final int usedBit = 1 << 2;
+	public static final int dirtyBit = 1 << 3;
+	public static final int savedBit = 1 << 4;
+
+	/** The physical page number is kept in the bits above the flags. */
+	public static final int ppnShift = 5;
+
+	private static final int flagMask = (1 << ppnShift) - 1;
+
 	/**
 	 * Allocate a new invalid translation entry.
 	 */
 	public Page() {
-		present = false;
+		setPresent(false);
 	}
 
 	/**
 	 * Allocate a new translation entry with the specified initial state.
-	 * 
+	 *
 	 * @param vpn
 	 *            the virtual page numben.
 	 * @param ppn
@@ -31,62 +47,140 @@ public final class Page {
 	public Page(int vpn, int ppn, boolean present, boolean readOnly,
 			boolean used, boolean dirty) {
 		this.vpn = vpn;
-		this.ppn = ppn;
-		this.present = present;
-		this.readOnly = readOnly;
-		this.used = used;
-		this.dirty = dirty;
+		setPpn(ppn);
+		setPresent(present);
+		setReadOnly(readOnly);
+		setUsed(used);
+		setDirty(dirty);
 	}
 
 	/**
 	 * Allocate a new translation entry, copying the contents of an existing
 	 * one.
-	 * 
+	 *
 	 * @param entry
 	 *            the translation entry to copy.
 	 */
 	public Page(Page entry) {
 		vpn = entry.vpn;
-		ppn = entry.ppn;
-		present = entry.present;
-		readOnly = entry.readOnly;
-		used = entry.used;
-		dirty = entry.dirty;
+		setPpn(entry.getPpn());
+		setPresent(entry.isPresent());
+		setReadOnly(entry.isReadOnly());
+		setUsed(entry.isUsed());
+		setDirty(entry.isDirty());
 	}
 
 	/** The virtual page number. */
 	public int vpn;
 
-	/** The physical page number. */
-	public int ppn;
+	/**
+	 * The array holding the packed entry, the page's own while it isn't in a
+	 * page table.
+	 */
+	private int[] entries = new int[1];
+
+	/** Where the packed entry is in entries. */
+	private int index = 0;
+
+	/**
+	 * Move the packed entry into a page table.
+	 */
+	void attach(int[] entries, int index) {
+		entries[index] = this.entries[this.index];
+
+		this.entries = entries;
+		this.index = index;
+	}
+
+	/**
+	 * Move the packed entry out of the page table it is in, into an array of
+	 * the page's own.
+	 */
+	void detach() {
+		entries = new int[] { entries[index] };
+		index = 0;
+	}
+
+	/** Return the physical page number. */
+	public int getPpn() {
+		return entries[index] >> ppnShift;
+	}
+
+	public void setPpn(int ppn) {
+		entries[index] = (ppn << ppnShift) | (entries[index] & flagMask);
+	}
 
 	/**
 	 * If this flag is <tt>false</tt>, this translation entry is ignored.
 	 */
-	public boolean present;
+	public boolean isPresent() {
+		return (entries[index] & presentBit) != 0;
+	}
+
+	public void setPresent(boolean present) {
+		setFlag(presentBit, present);
+	}
 
 	/**
 	 * If this flag is <tt>true</tt>, the user pprogram is not allowed to modify
 	 * the contents of this virtual page.
 	 */
-	public boolean readOnly;
+	public boolean isReadOnly() {
+		return (entries[index] & readOnlyBit) != 0;
+	}
+
+	public void setReadOnly(boolean readOnly) {
+		setFlag(readOnlyBit, readOnly);
+	}
 
 	/**
 	 * This flag is set to <tt>true</tt> every time the page is read or written
 	 * by a user program.
 	 */
-	public boolean used;
+	public boolean isUsed() {
+		return (entries[index] & usedBit) != 0;
+	}
+
+	public void setUsed(boolean used) {
+		setFlag(usedBit, used);
+	}
 
 	/**
 	 * This flag is set to <tt>true</tt> every time the page is written by a
 	 * user program.
 	 */
-	public boolean dirty;
-	
+	public boolean isDirty() {
+		return (entries[index] & dirtyBit) != 0;
+	}
+
+	public void setDirty(boolean dirty) {
+		setFlag(dirtyBit, dirty);
+	}
+
+	/**
+	 * Whether this page has been written out to disk yet
+	 */
+	public boolean isSaved() {
+		return (entries[index] & savedBit) != 0;
+	}
+
+	public void setSaved(boolean saved) {
+		setFlag(savedBit, saved);
+	}
+
+	private void setFlag(int bit, boolean value) {
+		if (value) {
+			entries[index] |= bit;
+		} else {
+			entries[index] &= ~bit;
+		}
+	}
+
 	/**
-	 * The data the page contains
+	 * A copy of the page's contents waiting to be loaded into memory, only set 
+	 * between a page taking its own copy of a shared page and it being loaded
 	 */
-	public byte[] data = new byte[Configuration.pageSize];
+	public byte[] data;
 	
 	/**
 	 * Process id that page belongs to
@@ -94,7 +188,31 @@ public final class Page {
 	public int pid;
 	
 	/**
-	 * Whether this page has been written out to disk yet
+	 * The slot in the swap area the page is written to, or -1 if it hasn't got one
+	 */
+	public int swapSlot = -1;
+	
+	/**
+	 * Pages in forked processes sharing this page's contents and data until one of 
+	 * them writes to it, or for a zero page the zero pages mapped to the same physical
+	 * page. Null if the page isn't shared.
+	 */
+	public List<Page> sharers;
+	
+	/**
+	 * Whether the page is part of a read only section of the program, shared with 
+	 * every other process running the same program
+	 */
+	public boolean text = false;
+	
+	/**
+	 * For a text page, the key the kernel keeps the pages sharing it under
+	 */
+	public long textKey;
+	
+	/**
+	 * Whether the page is a stack or uninitialized data page that hasn't been 
+	 * written to yet, sharing a zero filled physical page with the others in memory
 	 */
-	public boolean saved = false;
+	public boolean zero = false;
 }
@@ -0,0 +1,196 @@
+package machine;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The page table of a process. The top bits of a virtual page number pick a
+ * second level table out of the directory and the bottom bits pick the page in
+ * it. Second level tables are only allocated when a page in their part of the
+ * address space is used, so a large address space with the program at the
+ * bottom and the stack just above it only needs a table or two.
+ * <p>
+ * Each second level table keeps the packed entries of its pages in an int
+ * array alongside the pages, which is all the memory looks at to translate
+ * an address.
+ *
+ * @author pauljohnson
+ *
+ */
+public final class PageTable implements Iterable<Page> {
+	/** Number of bits of the virtual page number that index a second level table */
+	public static final int tableBits = 8;
+	
+	private static final int tableSize = 1 << tableBits;
+	
+	private static final int tableMask = tableSize - 1;
+	
+	// second level tables, null until a page in them is set
+	private Page[][] directory;
+	
+	// packed entries of the pages in each second level table
+	private int[][] entries;
+	
+	// number of virtual pages in the address space
+	private int size;
+	
+	/**
+	 * Allocate an empty page table for an address space of
+	 * <tt>Configuration.numVirtualPages</tt> pages.
+	 */
+	public PageTable() {
+		this(Configuration.numVirtualPages);
+	}
+	
+	/**
+	 * Allocate an empty page table.
+	 *
+	 * @param size
+	 *            the number of virtual pages in the address space.
+	 */
+	public PageTable(int size) {
+		this.size = size;
+		
+		directory = new Page[(size + tableMask) >>> tableBits][];
+		entries = new int[directory.length][];
+	}
+	
+	/**
+	 * Return the number of virtual pages in the address space.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Return the page table entry for a virtual page.
+	 *
+	 * @param vpn
+	 *            the virtual page number.
+	 * @return the entry, or null if the page hasn't been used or is outside the
+	 *         address space.
+	 */
+	public Page get(int vpn) {
+		if (vpn < 0 || vpn >= size) {
+			return null;
+		}
+		
+		Page[] table = directory[vpn >>> tableBits];
+		
+		if (table == null) {
+			return null;
+		}
+		
+		return table[vpn & tableMask];
+	}
+	
+	/**
+	 * Set the page table entry for a virtual page, allocating the second level
+	 * table it goes in if necessary. The page's packed entry moves into the
+	 * table and the entry of the page it replaces moves out with that page.
+	 *
+	 * @param vpn
+	 *            the virtual page number, in the address space.
+	 * @param page
+	 *            the entry.
+	 */
+	public void set(int vpn, Page page) {
+		assert (vpn >= 0 && vpn < size);
+		
+		Page[] table = directory[vpn >>> tableBits];
+		
+		if (table == null) {
+			table = new Page[tableSize];
+			directory[vpn >>> tableBits] = table;
+			entries[vpn >>> tableBits] = new int[tableSize];
+		}
+		
+		Page old = table[vpn & tableMask];
+		
+		if (old != null && old != page) {
+			old.detach();
+		}
+		
+		table[vpn & tableMask] = page;
+		
+		if (page != null) {
+			page.attach(entries[vpn >>> tableBits], vpn & tableMask);
+		} else {
+			entries[vpn >>> tableBits][vpn & tableMask] = 0;
+		}
+	}
+	
+	/**
+	 * Return the packed entry for a virtual page.
+	 *
+	 * @param vpn
+	 *            the virtual page number.
+	 * @return the entry, 0 (not present) if there is no page.
+	 */
+	public int getEntry(int vpn) {
+		if (vpn < 0 || vpn >= size) {
+			return 0;
+		}
+		
+		int[] table = entries[vpn >>> tableBits];
+		
+		if (table == null) {
+			return 0;
+		}
+		
+		return table[vpn & tableMask];
+	}
+	
+	/**
+	 * Set the packed entry of a virtual page that is in the table.
+	 *
+	 * @param vpn
+	 *            the virtual page number.
+	 * @param entry
+	 *            the packed entry.
+	 */
+	public void setEntry(int vpn, int entry) {
+		entries[vpn >>> tableBits][vpn & tableMask] = entry;
+	}
+	
+	/**
+	 * Iterate over the entries that have been set, in virtual page number order.
+	 */
+	public Iterator<Page> iterator() {
+		return new Iterator<Page>() {
+			// virtual page number of the next entry, size once there are no more
+			private int next = advance(0);
+			
+			public boolean hasNext() {
+				return next < size;
+			}
+			
+			public Page next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				
+				Page page = get(next);
+				
+				next = advance(next + 1);
+				
+				return page;
+			}
+			
+			// the first entry from vpn on, skipping tables that haven't been allocated
+			private int advance(int vpn) {
+				while (vpn < size) {
+					if (directory[vpn >>> tableBits] == null) {
+						vpn = ((vpn >>> tableBits) + 1) << tableBits;
+					} else if (get(vpn) == null) {
+						vpn++;
+					} else {
+						break;
+					}
+				}
+				
+				return Math.min(vpn, size);
+			}
+		};
+	}
+}
@@ -0,0 +1,109 @@
+package machine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PageTableTest extends TestCase {
+	
+	public void testGetAndSet() throws Exception {
+		PageTable table = new PageTable(4096);
+		
+		Page low = new Page(1, -1, false, false, false, false);
+		Page high = new Page(4000, -1, false, false, false, false);
+		
+		table.set(1, low);
+		table.set(4000, high);
+		
+		assertTrue(table.get(1) == low);
+		assertTrue(table.get(4000) == high);
+		assertNull(table.get(2));
+		assertNull(table.get(2000));
+		
+		// outside the address space
+		assertNull(table.get(-1));
+		assertNull(table.get(4096));
+	}
+	
+	public void testIteratesSetPagesInOrder() throws Exception {
+		PageTable table = new PageTable(1000);
+		
+		int[] vpns = {0, 3, 255, 256, 700, 999};
+		
+		for(int i = vpns.length - 1; i >= 0; i--){
+			table.set(vpns[i], new Page(vpns[i], -1, false, false, false, false));
+		}
+		
+		List<Integer> seen = new ArrayList<Integer>();
+		
+		for(Page page : table){
+			seen.add(page.vpn);
+		}
+		
+		assertEquals(vpns.length, seen.size());
+		
+		for(int i = 0; i < vpns.length; i++){
+			assertEquals(vpns[i], seen.get(i).intValue());
+		}
+		
+		assertFalse(new PageTable(1000).iterator().hasNext());
+	}
+	
+	public void testEntriesArePackedInTheTable() throws Exception {
+		PageTable table = new PageTable(1024);
+		
+		Page page = new Page(300, 7, true, false, false, false);
+		
+		table.set(300, page);
+		
+		int entry = table.getEntry(300);
+		
+		assertEquals(7, entry >> Page.ppnShift);
+		assertTrue((entry & Page.presentBit) != 0);
+		assertEquals(0, table.getEntry(301));
+		
+		// bits set by the memory are seen through the page and the other way round
+		table.setEntry(300, entry | Page.usedBit | Page.dirtyBit);
+		
+		assertTrue(page.isUsed());
+		assertTrue(page.isDirty());
+		assertEquals(7, page.getPpn());
+		
+		page.setPpn(-1);
+		page.setPresent(false);
+		
+		assertEquals(-1, table.getEntry(300) >> Page.ppnShift);
+		assertEquals(0, table.getEntry(300) & Page.presentBit);
+	}
+	
+	public void testReplacedPageKeepsItsEntry() throws Exception {
+		PageTable table = new PageTable(1024);
+		
+		Page page = new Page(5, 3, true, false, true, false);
+		
+		table.set(5, page);
+		table.set(5, null);
+		
+		assertEquals(0, table.getEntry(5));
+		
+		// the page still has its bits but changing them doesn't touch the table
+		assertEquals(3, page.getPpn());
+		assertTrue(page.isPresent());
+		assertTrue(page.isUsed());
+		
+		page.setDirty(true);
+		
+		assertEquals(0, table.getEntry(5));
+		
+		Page other = new Page(5, 9, true, false, false, false);
+		
+		table.set(5, other);
+		page.setPpn(1);
+		
+		assertEquals(9, table.getEntry(5) >> Page.ppnShift);
+		assertEquals(9, other.getPpn());
+		assertEquals(1, page.getPpn());
+		assertTrue(page.isDirty());
+	}
+}